@@ -0,0 +1,170 @@
+import java.util.Random;
+/**
+ * Estimates how much of the sky above a point is blocked by nearby shapes. Rays are fired over
+ * the hemisphere around the normal, weighted towards the normal, and each one only asks the 
+ * tree if anything lies within a maximum distance. Directions come from a stratified grid or a 
+ * Hammersley sequence, shifted by a random offset at every point so neighbouring pixels do not 
+ * share the same pattern.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class AmbientOcclusion {
+
+	/**
+	 * The point sets used to pick ray directions.
+	 */
+	public enum Sequence {
+		/** One jittered sample in each cell of a grid. */
+		STRATIFIED,
+		/** The Hammersley point set, rotated by a random offset. */
+		HAMMERSLEY
+	}
+	
+	private final int samples;
+	private final double maxDistance;
+	private final Sequence sequence;
+	private final double BIAS = 1e-5;
+	
+	/**
+	 * Constructs an ambient occlusion estimator.
+	 * 
+	 * @param samples - number of rays fired from each point
+	 * @param maxDistance - shapes further away than this do not block the sky
+	 * @param sequence - point set used to pick ray directions
+	 */
+	public AmbientOcclusion(int samples, double maxDistance, Sequence sequence) {
+		if (samples < 1) {
+			throw new IllegalArgumentException("Ambient occlusion needs at least one sample");
+		}
+		this.samples = samples;
+		this.maxDistance = maxDistance;
+		this.sequence = sequence;
+	}
+	
+	/**
+	 * Calculates the fraction of rays from a point that escape without hitting a shape.
+	 * 
+	 * @param point - the point on the surface
+	 * @param normal - unit normal on the side of the surface being shaded
+	 * @param tree - acceleration structure used for the occlusion rays
+	 * @param random - random number generator for this thread
+	 * @return 1 if nothing is nearby, down to 0 if the point is completely enclosed
+	 */
+	public double visibility(Point point, Vector normal, KDTree tree, Random random) {
+		return visibility(point, normal, tree, random, new double[1]);
+	}
+	
+	/**
+	 * Calculates the fraction of rays from a point that escape without hitting a shape, and 
+	 * the harmonic mean of how far the rays travelled. Rays that escape count as travelling 
+	 * the maximum distance.
+	 * 
+	 * @param point - the point on the surface
+	 * @param normal - unit normal on the side of the surface being shaded
+	 * @param tree - acceleration structure used for the occlusion rays
+	 * @param random - random number generator for this thread
+	 * @param meanDistance - one element array to receive the harmonic mean distance
+	 * @return 1 if nothing is nearby, down to 0 if the point is completely enclosed
+	 */
+	public double visibility(Point point, Vector normal, KDTree tree, Random random, double meanDistance[]) {
+		// Build two tangents perpendicular to the normal
+		double nx = normal.getX(), ny = normal.getY(), nz = normal.getZ();
+		double sign = nz >= 0 ? 1.0 : -1.0;
+		double a = -1.0 / (sign + nz);
+		double b = nx * ny * a;
+		Vector tangent = new Vector(1.0 + sign * nx * nx * a, sign * b, -sign * nx);
+		Vector bitangent = new Vector(b, sign + ny * ny * a, -ny);
+		
+		Point origin = point.add(normal.times(BIAS));
+		double shiftU = random.nextDouble();
+		double shiftV = random.nextDouble();
+		int columns = (int) Math.ceil(Math.sqrt(samples));
+		int rows = (samples + columns - 1) / columns;
+		
+		TileRecord record = TileRecord.current();
+		int visible = 0;
+		double inverseDistances = 0;
+		for (int i = 0; i < samples; i++) {
+			double u, v;
+			if (sequence == Sequence.STRATIFIED) {
+				u = (i % columns + random.nextDouble()) / columns;
+				v = (i / columns + random.nextDouble()) / rows;
+			} else {
+				u = wrap((i + 0.5) / samples + shiftU);
+				v = wrap(radicalInverse(i) + shiftV);
+			}
+			
+			// Cosine weighted direction over the hemisphere
+			double radius = Math.sqrt(u);
+			double angle = 2 * Math.PI * v;
+			double x = radius * Math.cos(angle);
+			double y = radius * Math.sin(angle);
+			double z = Math.sqrt(Math.max(0, 1 - u));
+			Vector direction = tangent.times(x).plus(bitangent.times(y)).plus(normal.times(z));
+			
+			RenderStats.occlusionRayCounter.increment();
+			Ray ray = new Ray(origin, direction);
+			Shape occluder = tree.findOccluder(ray, maxDistance);
+			if (occluder == null) {
+				visible++;
+				inverseDistances += 1.0 / maxDistance;
+			} else {
+				// Any shape found before the maximum distance, not always the nearest
+				inverseDistances += 1.0 / Math.max(ray.getDistance(), BIAS);
+				if (record != null) {
+					record.addShape(occluder);
+				}
+			}
+		}
+		meanDistance[0] = samples / inverseDistances;
+		return (double) visible / samples;
+	}
+	
+	/**
+	 * Retrieves the number of rays fired from each point.
+	 * 
+	 * @return rays per point
+	 */
+	public int getSamples() {
+		return samples;
+	}
+	
+	/**
+	 * Retrieves the distance beyond which shapes do not block the sky.
+	 * 
+	 * @return the maximum distance of the rays
+	 */
+	public double getMaxDistance() {
+		return maxDistance;
+	}
+	
+	/**
+	 * Retrieves the point set used to pick ray directions.
+	 * 
+	 * @return the sequence
+	 */
+	public Sequence getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * Mirrors the bits of an index about the binary point, the base 2 van der Corput sequence.
+	 * 
+	 * @param i - index of the sample
+	 * @return a value between 0 and 1
+	 */
+	private static double radicalInverse(int i) {
+		return (Integer.reverse(i) >>> 1) / (double) (1L << 31);
+	}
+	
+	/**
+	 * Wraps a value back into the range 0 to 1.
+	 * 
+	 * @param value - value between 0 and 2
+	 * @return the value without its whole part
+	 */
+	private static double wrap(double value) {
+		return value >= 1 ? value - 1 : value;
+	}
+}
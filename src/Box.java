@@ -21,6 +21,29 @@ public class Box {
 		this.max = max;
 	}
 
+	/**
+	 * Constructs the smallest bounding volume surrounding a list of shapes.
+	 * 
+	 * @param shapes - Shapes to surround
+	 * @return the bounding volume, or null if there are no shapes
+	 */
+	public static Box around(Shape shapes[]) {
+		if (shapes.length == 0) {
+			return null;
+		}
+		double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE, zMin = Double.MAX_VALUE;
+		double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE, zMax = -Double.MAX_VALUE;
+		for (int i = 0; i < shapes.length; i++) {
+			xMin = Math.min(xMin, shapes[i].getMinX());
+			yMin = Math.min(yMin, shapes[i].getMinY());
+			zMin = Math.min(zMin, shapes[i].getMinZ());
+			xMax = Math.max(xMax, shapes[i].getMaxX());
+			yMax = Math.max(yMax, shapes[i].getMaxY());
+			zMax = Math.max(zMax, shapes[i].getMaxZ());
+		}
+		return new Box(new Point(xMin, yMin, zMin), new Point(xMax, yMax, zMax));
+	}
+
 	/**
 	 * Sets the minimum of the bounding volume.
 	 * 
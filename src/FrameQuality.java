@@ -0,0 +1,100 @@
+/**
+ * Describes the quality an image was traced at, for frames whose quality is lowered to meet
+ * a deadline.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class FrameQuality {
+
+	// Side in pixels of the blocks filled by each traced ray, 1 for full resolution
+	private final int blockSize;
+	private final int samples;
+	private final int maxDepth;
+	// Tiles left at a coarser quality because the deadline passed before they were traced
+	private final int skippedTiles;
+	private final double raysPerSecond;
+	private final long elapsed;
+
+	/**
+	 * Constructs a description of the quality of a frame.
+	 *
+	 * @param blockSize - Side in pixels of the blocks filled by each traced ray
+	 * @param samples - Rays traced for each block
+	 * @param maxDepth - Most rays along a path, counting the camera ray
+	 * @param skippedTiles - Tiles left at a coarser quality than the rest
+	 * @param raysPerSecond - Camera and reflection rays traced each second
+	 * @param elapsed - Milliseconds taken by the frame
+	 */
+	public FrameQuality(int blockSize, int samples, int maxDepth, int skippedTiles, double raysPerSecond, long elapsed) {
+		this.blockSize = blockSize;
+		this.samples = samples;
+		this.maxDepth = maxDepth;
+		this.skippedTiles = skippedTiles;
+		this.raysPerSecond = raysPerSecond;
+		this.elapsed = elapsed;
+	}
+
+	/**
+	 * Retrieves the side of the blocks filled by each traced ray.
+	 *
+	 * @return side in pixels, 1 for full resolution
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Retrieves the number of rays traced for each block.
+	 *
+	 * @return rays for each block
+	 */
+	public int getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Retrieves the most rays along a path.
+	 *
+	 * @return the depth of the paths traced
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Retrieves the number of tiles left at a coarser quality than the rest.
+	 *
+	 * @return number of tiles
+	 */
+	public int getSkippedTiles() {
+		return skippedTiles;
+	}
+
+	/**
+	 * Retrieves the rate rays were traced at.
+	 *
+	 * @return camera and reflection rays traced each second
+	 */
+	public double getRaysPerSecond() {
+		return raysPerSecond;
+	}
+
+	/**
+	 * Retrieves the time taken by the frame.
+	 *
+	 * @return milliseconds from the start of the frame to the end
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	@Override
+	public String toString() {
+		String resolution = blockSize == 1 ? "full resolution" : "1 ray per " + blockSize + "x" + blockSize + " block";
+		String rays = blockSize == 1 ? samples + (samples == 1 ? " ray" : " rays") + " per pixel" : "";
+		return resolution + (rays.isEmpty() ? "" : ", " + rays) + ", depth " + maxDepth
+				+ (skippedTiles > 0 ? ", " + skippedTiles + " tiles left coarser" : "")
+				+ ", " + Math.round(raysPerSecond / 1000) + "k rays/s, " + elapsed + "ms";
+	}
+}
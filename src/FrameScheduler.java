@@ -0,0 +1,644 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import javax.imageio.ImageIO;
+/**
+ * Decides what is traced in each frame of an image and when. Splits the image into tiles and
+ * spreads them over a pool of threads, traces the coarse passes of progressive frames and
+ * publishes their previews, and lowers the quality of frames that have to meet a deadline.
+ * The tracing of each tile is left to the image.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class FrameScheduler {
+
+	private final Image image;
+	private final int imageWidth;
+	private final int imageHeight;
+	private final int TILE_SIZE = 16;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	// Threads tiles are traced on, kept from pass to pass and frame to frame so their start up
+	// is paid once and the state each thread keeps for itself stays warm
+	private ExecutorService pool;
+	private boolean mortonOrder = true;
+	private boolean progressive = false;
+	// Side of the blocks filled by each ray of the coarse passes, each pass tracing the top
+	// left pixel of every block not traced by the pass before
+	private final int PREVIEW_BLOCKS[] = {8, 4, 2};
+	private final double PREVIEW_OFFSETS[][] = {{0.5, 0.5}};
+	// Copy of the image holding only finished tiles, so previews are never read while
+	// threads are still writing to them
+	private BufferedImage previewData;
+	private File previewFile;
+	private long previewInterval = 1000;
+	private PreviewListener previewListener;
+	// True while the tiles of a progressive frame are being traced
+	private boolean previewing = false;
+	private long frameStart;
+	private long lastPreview;
+	private long firstPreviewTime = -1;
+	private long finalFrameTime = -1;
+	private long deadline = 0;
+	// Tiles stop where they are once this time has passed, or 0 to trace every tile in full
+	private long stopAt = 0;
+	// Tiles left unfinished by their last pass because the time to stop at passed
+	private final Set<TileRecord> cutShort = ConcurrentHashMap.newKeySet();
+	// Every this many tiles one is traced at full quality to measure the cost of the full pass
+	private final int PROBE_SPACING = 32;
+	private FrameQuality frameQuality;
+
+	/**
+	 * Constructs a scheduler for the frames of an image.
+	 *
+	 * @param image - The image whose tiles are traced
+	 * @param width - The width of the image
+	 * @param height - The height of the image
+	 */
+	public FrameScheduler(Image image, int width, int height) {
+		this.image = image;
+		imageWidth = width;
+		imageHeight = height;
+	}
+
+	/**
+	 * Starts the clock of a new frame. Called as soon as rayTrace is, so the times reported
+	 * include building the tree.
+	 */
+	public void startFrame() {
+		frameStart = System.nanoTime();
+		firstPreviewTime = -1;
+		lastPreview = 0;
+		previewData = progressive ? new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB) : null;
+	}
+
+	/**
+	 * Traces every tile of a frame, within the deadline if one is set and with coarse
+	 * previews first if the frame is progressive.
+	 *
+	 * @param camera - The viewpoint of the image
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles of the image
+	 * @param maxDepth - Most rays along a path, counting the camera ray
+	 * @return true if every tile was traced by the full pass, false if the G-buffer and tile
+	 * 		   records of the frame are incomplete
+	 */
+	public boolean renderFrame(Camera camera, Scene scene, KDTree tree, List<TileRecord> list, int maxDepth) {
+		boolean complete = true;
+		if (deadline > 0) {
+			complete = renderWithinDeadline(camera, scene, tree, list, maxDepth);
+		} else {
+			long start = System.nanoTime();
+			if (progressive) {
+				renderPreviews(camera, scene, tree, list, maxDepth);
+			}
+			renderFullPass(camera, scene, tree, list, maxDepth);
+			frameQuality = new FrameQuality(1, GBuffer.SAMPLES, maxDepth, 0, raysPerSecond(start), elapsedMillis());
+		}
+		finalFrameTime = elapsedMillis();
+		if (progressive) {
+			// Every thread is done, so the whole image can be copied
+			previewData.setData(image.getImageData().getRaster());
+			publishPreview(1, true, true);
+		}
+		return complete;
+	}
+
+	/**
+	 * Traces every tile of the image at full quality, publishing previews along the way for
+	 * a progressive frame.
+	 *
+	 * @param camera - The viewpoint of the image
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles of the image
+	 * @param depth - Most rays along a path, counting the camera ray
+	 */
+	private void renderFullPass(Camera camera, Scene scene, KDTree tree, List<TileRecord> list, int depth) {
+		previewing = progressive;
+		try {
+			image.renderFullPass(camera, scene, tree, list, depth);
+		} finally {
+			previewing = false;
+		}
+	}
+
+	/**
+	 * Traces the coarse passes of a progressive frame. Each pass traces a single ray through
+	 * the top left pixel of every block of PREVIEW_BLOCKS and fills the block with its colour,
+	 * skipping the pixels the pass before already traced. The image is published after each
+	 * pass, the first always and the rest once the preview interval has passed.
+	 *
+	 * @param camera - The viewpoint of the image
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles of the image
+	 * @param depth - Most rays along a path, counting the camera ray
+	 */
+	private void renderPreviews(Camera camera, Scene scene, KDTree tree, List<TileRecord> list, int depth) {
+		RayGenerator generator = new RayGenerator(camera, imageWidth, imageHeight, image.getAspectRatio(), PREVIEW_OFFSETS);
+		for (int pass = 0; pass < PREVIEW_BLOCKS.length; pass++) {
+			int block = PREVIEW_BLOCKS[pass];
+			renderPreviewPass(camera, generator, scene, tree, list, block, pass == 0 ? 0 : PREVIEW_BLOCKS[pass - 1], depth);
+			publishPreview(block, pass == 0, false);
+		}
+	}
+
+	/**
+	 * Traces the image in passes of rising quality so it is done by the deadline, choosing
+	 * each pass from the rate rays have been traced at so far. The 8x8 pass comes first,
+	 * without reflections so it is as quick as it can be. A spread of tiles is then traced at
+	 * full quality to measure the full pass. If the rest of the full pass is expected to fit
+	 * at the full depth it is traced and the measured tiles kept; otherwise they are put back
+	 * and the full pass is traced without reflections if that fits. Failing both, the next
+	 * finer coarse pass that is expected to fit is traced and the choice made again, down to
+	 * one ray per pixel. Every pass stops where it is once the deadline passes, even part way
+	 * through a tile, and whatever was not traced keeps the colours of the pass before.
+	 *
+	 * @param camera - The viewpoint of the image
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles of the image
+	 * @param maxDepth - Most rays along a path, counting the camera ray
+	 * @return true if the full pass traced every tile
+	 */
+	private boolean renderWithinDeadline(Camera camera, Scene scene, KDTree tree, List<TileRecord> list, int maxDepth) {
+		long deadlineAt = frameStart + deadline * 1000000;
+		long start = System.nanoTime();
+		double pixels = (double) imageWidth * imageHeight;
+		RayGenerator generator = new RayGenerator(camera, imageWidth, imageHeight, image.getAspectRatio(), PREVIEW_OFFSETS);
+
+		int block = PREVIEW_BLOCKS[0];
+		int depth = 1;
+		boolean full = false;
+		cutShort.clear();
+		stopAt = deadlineAt;
+		try {
+			renderPreviewPass(camera, generator, scene, tree, list, block, 0, depth);
+			if (progressive) {
+				publishPreview(block, true, false);
+			}
+			// Cost of each camera ray without reflections, and with them at the full depth
+			double rayNanos = (System.nanoTime() - start) / (double) Math.max(1, RenderStats.primaryRayCounter.sum());
+			double fullRayNanos = rayNanos;
+			// Nanoseconds taken by each tile of the full pass, and reflection rays for each camera ray
+			double probe[] = {Double.POSITIVE_INFINITY, 0};
+			ArrayList<TileRecord> probes = new ArrayList<>();
+			ArrayList<int[]> saved = new ArrayList<>();
+			if (cutShort.isEmpty()) {
+				probe = probeFullPass(camera, scene, tree, list, deadlineAt, maxDepth, probes, saved);
+				fullRayNanos = rayNanos * (1 + probe[1]);
+			}
+
+			while (System.nanoTime() < deadlineAt) {
+				double remaining = deadlineAt - System.nanoTime();
+				if (probe[0] * (list.size() - probes.size()) <= remaining) {
+					// The tiles measured are already done
+					ArrayList<TileRecord> rest = new ArrayList<>(list);
+					rest.removeAll(probes);
+					depth = maxDepth;
+					renderFullPass(camera, scene, tree, rest, depth);
+					probes.clear();
+					saved.clear();
+					full = true;
+					break;
+				}
+				restoreTiles(probes, saved);
+				// Without reflections each camera ray is the only ray of its path
+				if (probe[0] * list.size() / (1 + probe[1]) <= remaining) {
+					depth = 1;
+					renderFullPass(camera, scene, tree, list, depth);
+					full = true;
+					break;
+				}
+				if (block == 1) {
+					break;
+				}
+
+				int next = block / 2;
+				double passRays = pixels / (next * next) - pixels / (block * block);
+				int passDepth;
+				if (passRays * fullRayNanos <= remaining) {
+					passDepth = maxDepth;
+				} else if (passRays * rayNanos <= remaining) {
+					passDepth = 1;
+				} else {
+					break;
+				}
+				long passStart = System.nanoTime();
+				long passPrimary = RenderStats.primaryRayCounter.sum();
+				renderPreviewPass(camera, generator, scene, tree, list, next, block, passDepth);
+				double passNanos = (System.nanoTime() - passStart) / (double) Math.max(1, RenderStats.primaryRayCounter.sum() - passPrimary);
+				if (passDepth == maxDepth) {
+					fullRayNanos = passNanos;
+				} else {
+					rayNanos = passNanos;
+				}
+				block = next;
+				if (progressive) {
+					publishPreview(block, false, false);
+				}
+			}
+			restoreTiles(probes, saved);
+		} finally {
+			stopAt = 0;
+		}
+
+		// The 8x8 pass is part of any coarse frame, so its depth is the lowest
+		frameQuality = new FrameQuality(full ? 1 : block, full ? GBuffer.SAMPLES : 1, full ? depth : 1, cutShort.size(),
+				raysPerSecond(start), elapsedMillis());
+		return full && cutShort.isEmpty();
+	}
+
+	/**
+	 * Traces a spread of tiles at full quality to measure how long the full pass would take.
+	 * At most a tenth of the time left before the deadline is spent. Tiles that finish are
+	 * kept, along with what they held before, so the caller can either skip them in the full
+	 * pass or put them back to keep the image even. Tiles that ran out of time are put back
+	 * straight away.
+	 *
+	 * @param camera - The viewpoint of the image
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles of the image
+	 * @param deadlineAt - System.nanoTime() the frame must be done by
+	 * @param depth - Most rays along a path, counting the camera ray
+	 * @param probes - Filled with the tiles traced in full
+	 * @param saved - Filled with the pixels each of those tiles held before
+	 * @return the nanoseconds taken by each tile, infinite if none was traced in time, then
+	 * 		   the reflection rays fired for each camera ray
+	 */
+	private double[] probeFullPass(Camera camera, Scene scene, KDTree tree, List<TileRecord> list, long deadlineAt, int depth,
+			List<TileRecord> probes, List<int[]> saved) {
+		BufferedImage imageData = image.getImageData();
+		ArrayList<TileRecord> spread = new ArrayList<>();
+		for (int i = PROBE_SPACING / 2; i < list.size(); i += PROBE_SPACING) {
+			spread.add(list.get(i));
+		}
+		if (spread.isEmpty()) {
+			spread.add(list.get(0));
+		}
+		for (TileRecord tile : spread) {
+			saved.add(imageData.getRGB(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), null, 0, tile.getWidth()));
+		}
+
+		long start = System.nanoTime();
+		long primary = RenderStats.primaryRayCounter.sum();
+		long reflections = RenderStats.reflectionRayCounter.sum();
+		long frameStop = stopAt;
+		stopAt = start + (deadlineAt - start) / 10;
+		try {
+			image.renderTracedTiles(camera, scene, tree, spread, depth);
+		} finally {
+			stopAt = frameStop;
+		}
+		double elapsed = System.nanoTime() - start;
+		double reflectionsPerRay = (RenderStats.reflectionRayCounter.sum() - reflections)
+				/ (double) Math.max(1, RenderStats.primaryRayCounter.sum() - primary);
+
+		for (int i = spread.size() - 1; i >= 0; i--) {
+			TileRecord tile = spread.get(i);
+			if (cutShort.remove(tile)) {
+				imageData.setRGB(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), saved.get(i), 0, tile.getWidth());
+				spread.remove(i);
+				saved.remove(i);
+			}
+		}
+		probes.addAll(spread);
+		double tileNanos = spread.isEmpty() ? Double.POSITIVE_INFINITY : elapsed / spread.size();
+		return new double[] {tileNanos, reflectionsPerRay};
+	}
+
+	/**
+	 * Puts back what a list of tiles held before they were traced, then empties the lists.
+	 *
+	 * @param list - The tiles to put back
+	 * @param saved - The pixels each tile held before
+	 */
+	private void restoreTiles(List<TileRecord> list, List<int[]> saved) {
+		BufferedImage imageData = image.getImageData();
+		for (int i = 0; i < list.size(); i++) {
+			TileRecord tile = list.get(i);
+			imageData.setRGB(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), saved.get(i), 0, tile.getWidth());
+			if (previewData != null) {
+				copyToPreview(tile);
+			}
+		}
+		list.clear();
+		saved.clear();
+	}
+
+	/**
+	 * Traces one coarse pass over every tile.
+	 *
+	 * @param camera - The viewpoint of the image
+	 * @param generator - Generator of rays through the centre of each pixel
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles of the image
+	 * @param block - Side of the blocks filled by each ray
+	 * @param traced - Side of the blocks of the pass before, or 0 for the first pass
+	 * @param depth - Most rays along a path, counting the camera ray
+	 */
+	private void renderPreviewPass(Camera camera, RayGenerator generator, Scene scene, KDTree tree, List<TileRecord> list,
+			int block, int traced, int depth) {
+		scene.getLightTree();
+		forEachTile(list, tile -> image.renderPreviewTile(camera, generator, scene, tree, tile, block, traced, depth));
+	}
+
+	/**
+	 * Works out the rate rays have been traced at during the frame.
+	 *
+	 * @param start - System.nanoTime() when tracing started
+	 * @return camera and reflection rays traced each second
+	 */
+	private double raysPerSecond(long start) {
+		long nanos = Math.max(1, System.nanoTime() - start);
+		return (RenderStats.primaryRayCounter.sum() + RenderStats.reflectionRayCounter.sum()) * 1e9 / nanos;
+	}
+
+	/**
+	 * Copies a tile whose work has finished into the preview image.
+	 *
+	 * @param tile - The finished tile
+	 */
+	private void copyToPreview(TileRecord tile) {
+		int rgb[] = image.getImageData().getRGB(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), null, 0, tile.getWidth());
+		previewData.setRGB(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), rgb, 0, tile.getWidth());
+	}
+
+	/**
+	 * Writes the finished tiles to the preview file and hands them to the preview listener.
+	 * Unless forced, nothing is published until the preview interval has passed since the
+	 * last time.
+	 *
+	 * @param blockSize - Side of the blocks filled by each traced ray
+	 * @param force - true to publish whatever the interval
+	 * @param finished - true for the final image
+	 */
+	private void publishPreview(int blockSize, boolean force, boolean finished) {
+		long elapsed = elapsedMillis();
+		if (!force && elapsed - lastPreview < previewInterval) {
+			return;
+		}
+		if (previewFile != null) {
+			try {
+				ImageIO.write(previewData, "PNG", previewFile);
+			} catch (Exception e) {
+				System.out.println("Unable to save preview");
+			}
+		}
+		if (previewListener != null) {
+			previewListener.previewReady(previewData, blockSize, finished, elapsed);
+		}
+		if (firstPreviewTime < 0) {
+			firstPreviewTime = elapsed;
+		}
+		lastPreview = elapsedMillis();
+	}
+
+	/**
+	 * Works out the time since rayTrace was called.
+	 *
+	 * @return milliseconds since the frame started
+	 */
+	private long elapsedMillis() {
+		return (System.nanoTime() - frameStart) / 1000000;
+	}
+
+	/**
+	 * Splits the image into tiles of TILE_SIZE pixels, the last row and column cut short to
+	 * fit the image.
+	 *
+	 * @return a record for every tile, in the order they are traced
+	 */
+	public ArrayList<TileRecord> createTiles() {
+		int across = (imageWidth + TILE_SIZE - 1) / TILE_SIZE;
+		int down = (imageHeight + TILE_SIZE - 1) / TILE_SIZE;
+		ArrayList<TileRecord> list = new ArrayList<>();
+		for (int tile : traversalOrder(across, down)) {
+			int tileX = (tile % across) * TILE_SIZE;
+			int tileY = (tile / across) * TILE_SIZE;
+			list.add(new TileRecord(tileX, tileY, Math.min(TILE_SIZE, imageWidth - tileX), Math.min(TILE_SIZE, imageHeight - tileY)));
+		}
+		return list;
+	}
+
+	/**
+	 * Lists the cells of a grid of tiles or pixels in the order they are traced. Along a
+	 * Z-order curve when Morton order is on, so rays traced one after another stay close
+	 * together, otherwise in rows from the top left.
+	 *
+	 * @param width - Number of columns in the grid
+	 * @param height - Number of rows in the grid
+	 * @return the index y * width + x of each cell, in the order to trace them
+	 */
+	public int[] traversalOrder(int width, int height) {
+		if (mortonOrder) {
+			return Morton.order(width, height);
+		}
+		int cells[] = new int[width * height];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = i;
+		}
+		return cells;
+	}
+
+	/**
+	 * Runs some work on every tile of a list, spreading the tiles over a pool of threads.
+	 * Each thread takes the next tile from the list once it finishes the last, so busy tiles
+	 * do not hold up the rest. While a progressive frame is traced, each tile is copied into
+	 * the preview image once its work has finished, and the preview is published each time
+	 * the preview interval passes. Once the time to stop at has passed, tiles not yet started
+	 * are skipped and the work stops part way through the rest; both are noted as cut short.
+	 *
+	 * @param list - The tiles to work on
+	 * @param tileWork - The work to do on each tile, returning false if it stopped part way
+	 */
+	public void forEachTile(List<TileRecord> list, Predicate<TileRecord> tileWork) {
+		long stop = stopAt;
+		Consumer<TileRecord> work = tile -> {
+			if ((stop != 0 && System.nanoTime() >= stop) || !tileWork.test(tile)) {
+				cutShort.add(tile);
+			}
+		};
+		if (threads <= 1 || list.size() <= 1) {
+			for (TileRecord tile : list) {
+				work.accept(tile);
+				if (previewData != null) {
+					copyToPreview(tile);
+				}
+				if (previewing && previewInterval > 0) {
+					publishPreview(1, false, false);
+				}
+			}
+			return;
+		}
+
+		ExecutorService pool = pool();
+		try {
+			ArrayList<Future<?>> results = new ArrayList<>();
+			for (TileRecord tile : list) {
+				results.add(pool.submit(() -> work.accept(tile)));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				// Waiting on the tile means every write to it can be seen here
+				results.get(i).get();
+				if (previewData != null) {
+					copyToPreview(list.get(i));
+				}
+				if (previewing && previewInterval > 0) {
+					publishPreview(1, false, false);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Rendering was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Unable to render tile", e.getCause());
+		}
+	}
+
+	/**
+	 * Retrieves the pool tiles are traced on, starting it the first time it is needed. Its 
+	 * threads are daemons so an image that is never shut down does not keep the program open.
+	 *
+	 * @return the pool of tracing threads
+	 */
+	private synchronized ExecutorService pool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(threads, task -> {
+				Thread thread = new Thread(task, "tile-tracer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Stops the threads tiles are traced on once they finish what they are doing. Another 
+	 * frame can still be traced afterwards, it starts a new pool.
+	 */
+	public synchronized void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Checks if the time to stop at has passed, so tiles should stop where they are.
+	 *
+	 * @return true once the frame is out of time
+	 */
+	public boolean isPastStop() {
+		long stop = stopAt;
+		return stop != 0 && System.nanoTime() >= stop;
+	}
+
+	/**
+	 * Sets the number of threads tiles are traced on.
+	 *
+	 * @param threads - number of threads, 1 to trace on the calling thread
+	 */
+	public void setThreads(int threads) {
+		if (threads != this.threads) {
+			// The pool is started again at the new size when next needed
+			shutdown();
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Turns Morton order of tiles and of the pixels within them on or off.
+	 *
+	 * @param mortonOrder - true to trace along a Z-order curve
+	 */
+	public void setMortonOrder(boolean mortonOrder) {
+		this.mortonOrder = mortonOrder;
+	}
+
+	/**
+	 * Turns the coarse passes of progressive frames on or off.
+	 *
+	 * @param progressive - true to trace coarse previews first
+	 */
+	public void setProgressive(boolean progressive) {
+		this.progressive = progressive;
+	}
+
+	/**
+	 * Sets the file previews are written to.
+	 *
+	 * @param previewFile - the PNG to write, or null to not write previews
+	 */
+	public void setPreviewFile(File previewFile) {
+		this.previewFile = previewFile;
+	}
+
+	/**
+	 * Sets the shortest time between two previews.
+	 *
+	 * @param previewInterval - milliseconds between previews
+	 */
+	public void setPreviewInterval(long previewInterval) {
+		this.previewInterval = previewInterval;
+	}
+
+	/**
+	 * Sets the listener handed each preview.
+	 *
+	 * @param previewListener - the listener, or null for none
+	 */
+	public void setPreviewListener(PreviewListener previewListener) {
+		this.previewListener = previewListener;
+	}
+
+	/**
+	 * Retrieves the time from the start of the last frame until its first preview.
+	 *
+	 * @return milliseconds to the first preview, or -1 if none was published
+	 */
+	public long getFirstPreviewTime() {
+		return firstPreviewTime;
+	}
+
+	/**
+	 * Retrieves the time from the start of the last frame until it was fully traced.
+	 *
+	 * @return milliseconds to the final image, or -1 if no frame has been traced
+	 */
+	public long getFinalFrameTime() {
+		return finalFrameTime;
+	}
+
+	/**
+	 * Sets the time limit of each frame.
+	 *
+	 * @param deadline - milliseconds from the call to rayTrace, or 0 for no limit
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Retrieves the quality the last frame was traced at.
+	 *
+	 * @return the quality of the last frame, or null if no frame has been traced
+	 */
+	public FrameQuality getFrameQuality() {
+		return frameQuality;
+	}
+}
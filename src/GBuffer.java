@@ -0,0 +1,197 @@
+/**
+ * Stores what every primary ray of an image hit, so the image can be shaded again after 
+ * lights or materials change without tracing the rays from the camera again. Each sample 
+ * keeps the id of the shape hit, the distance along the ray, the normal and the material id.
+ * Only valid while the camera and geometry stay the same.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class GBuffer {
+
+	public static final int SAMPLES = 4;
+	private static final int MISS = -1;
+	
+	private int width;
+	private int height;
+	private Camera camera;
+	private int shapeIds[];
+	private double distances[];
+	private double normalX[];
+	private double normalY[];
+	private double normalZ[];
+	private int materialIds[];
+	
+	/**
+	 * Constructs an empty buffer for an image.
+	 * 
+	 * @param width - The width of the image
+	 * @param height - The height of the image
+	 * @param camera - The viewpoint the primary rays are fired from
+	 */
+	public GBuffer(int width, int height, Camera camera) {
+		this.width = width;
+		this.height = height;
+		this.camera = camera;
+		
+		int size = width * height * SAMPLES;
+		shapeIds = new int[size];
+		distances = new double[size];
+		normalX = new double[size];
+		normalY = new double[size];
+		normalZ = new double[size];
+		materialIds = new int[size];
+	}
+	
+	/**
+	 * Calculates where a sample is kept within the buffer.
+	 * 
+	 * @param x - Pixel x
+	 * @param y - Pixel y
+	 * @param sample - Which ray of the pixel, from 0 to SAMPLES - 1
+	 * @return the index of the sample
+	 */
+	public int index(int x, int y, int sample) {
+		return (y * width + x) * SAMPLES + sample;
+	}
+	
+	/**
+	 * Records the surface hit by a primary ray.
+	 * 
+	 * @param index - index of the sample
+	 * @param shape - the shape hit
+	 * @param distance - the distance along the ray to the hit
+	 * @param normal - normal of the shape at the hit
+	 * @param materialId - id of the material at the hit
+	 */
+	public void store(int index, Shape shape, double distance, Vector normal, int materialId) {
+		shapeIds[index] = shape.getId();
+		distances[index] = distance;
+		normalX[index] = normal.getX();
+		normalY[index] = normal.getY();
+		normalZ[index] = normal.getZ();
+		materialIds[index] = materialId;
+	}
+	
+	/**
+	 * Records that a primary ray hit nothing.
+	 * 
+	 * @param index - index of the sample
+	 */
+	public void storeMiss(int index) {
+		shapeIds[index] = MISS;
+	}
+	
+	/**
+	 * Checks if a primary ray hit anything.
+	 * 
+	 * @param index - index of the sample
+	 * @return true if a shape was hit
+	 * 		   false otherwise
+	 */
+	public boolean isHit(int index) {
+		return shapeIds[index] != MISS;
+	}
+	
+	/**
+	 * Retrieves the id of the shape hit by a sample.
+	 * 
+	 * @param index - index of the sample
+	 * @return the shape id, or -1 for a miss
+	 */
+	public int getShapeId(int index) {
+		return shapeIds[index];
+	}
+	
+	/**
+	 * Retrieves the distance along the ray to the hit of a sample.
+	 * 
+	 * @param index - index of the sample
+	 * @return the distance to the hit
+	 */
+	public double getDistance(int index) {
+		return distances[index];
+	}
+	
+	/**
+	 * Retrieves the normal at the hit of a sample.
+	 * 
+	 * @param index - index of the sample
+	 * @return the normal at the hit
+	 */
+	public Vector getNormal(int index) {
+		return new Vector(normalX[index], normalY[index], normalZ[index]);
+	}
+	
+	/**
+	 * Retrieves the id of the material at the hit of a sample.
+	 * 
+	 * @param index - index of the sample
+	 * @return the material id
+	 */
+	public int getMaterialId(int index) {
+		return materialIds[index];
+	}
+	
+	/**
+	 * Retrieves the viewpoint the buffer was recorded from.
+	 * 
+	 * @return the camera of the primary rays
+	 */
+	public Camera getCamera() {
+		return camera;
+	}
+	
+	/**
+	 * Retrieves the width of the image the buffer was recorded for.
+	 * 
+	 * @return the width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Retrieves the height of the image the buffer was recorded for.
+	 * 
+	 * @return the height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Counts the samples whose hit differs from another buffer of the same size. Samples 
+	 * differ if only one of them hit, if they hit different shapes, or if the distances to 
+	 * the hits differ by more than the tolerance.
+	 * 
+	 * @param other - The buffer to compare with
+	 * @param tolerance - Largest difference in distance allowed
+	 * @return the number of samples that differ
+	 */
+	public int countMismatches(GBuffer other, double tolerance) {
+		if (other.shapeIds.length != shapeIds.length) {
+			throw new IllegalArgumentException("Buffers are different sizes");
+		}
+		
+		int mismatches = 0;
+		for (int i = 0; i < shapeIds.length; i++) {
+			if (shapeIds[i] != other.shapeIds[i]) {
+				mismatches++;
+			} else if (shapeIds[i] != MISS && Math.abs(distances[i] - other.distances[i]) > tolerance) {
+				mismatches++;
+			}
+		}
+		return mismatches;
+	}
+	
+	/**
+	 * Estimates the memory used by the samples of the buffer.
+	 * 
+	 * @return size of the buffer in bytes
+	 */
+	public long getMemoryUsage() {
+		// Two int arrays and four double arrays
+		return (long) shapeIds.length * (2 * Integer.BYTES + 4 * Double.BYTES);
+	}
+}
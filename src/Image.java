@@ -3,6 +3,12 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.imageio.ImageIO;
 /**
@@ -15,14 +21,52 @@ import javax.imageio.ImageIO;
  */
 public class Image {
 
+	/**
+	 * The ways of finding whether a light reaches a point.
+	 */
+	public enum ShadowMode {
+		/** A shadow ray is fired towards the light, exact but slow. */
+		RAY_TRACED,
+		/** The depth map drawn around the light is looked up, fast but approximate. */
+		SHADOW_MAP
+	}
+
 	private int imageHeight;
 	private int imageWidth;
 	private double aspectRatio = 16 / 9;
 
 	private static File image;
 	private static BufferedImage imageData;
-	static long intersectionCheckCounter = 0;
-	private final int MAX_DEPTH = 1;
+	private int maxDepth = 1;
+	private boolean russianRoulette = false;
+	private final double ROULETTE_THRESHOLD = 0.5;
+	private int secondaryRayBudget = 0;
+	private final double SHADOW_BIAS = 1e-5;
+	private boolean shadows = true;
+	private ShadowMode shadowMode = ShadowMode.RAY_TRACED;
+	private int shadowMapResolution = 512;
+	private IdentityHashMap<Light, ShadowMap> shadowMaps;
+	private double lightCutoff = 0.01;
+	// Scales the diffuse and specular light by the attenuation of each light, off to shade as 
+	// the original renderer did and only use attenuation to cull lights
+	private boolean attenuatedShading = false;
+	private int lightSamples = 0;
+	private boolean occluderCache = true;
+	private boolean recordGBuffer = false;
+	private GBuffer gBuffer;
+	private final double SAMPLE_OFFSETS[][] = {{0.25, 0.25}, {0.75, 0.25}, {0.25, 0.75}, {0.75, 0.75}};
+	private boolean recordTiles = false;
+	private ArrayList<TileRecord> tiles;
+	private Camera lastCamera;
+	private int recordedLights;
+	private boolean wavefront = false;
+	private boolean raySorting = false;
+	private boolean rasterise = false;
+	private boolean frustumCulling = true;
+	private AmbientOcclusion ambientOcclusion;
+	private double occlusionCacheTolerance = 0;
+	private OcclusionCache occlusionCache;
+	private final FrameScheduler scheduler;
 
 	/**
 	 * Constructs a buffered image object of resolution width x heigth .
@@ -36,6 +80,7 @@ public class Image {
 
 		image = new File("result.png");
 		imageData = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		scheduler = new FrameScheduler(this, width, height);
 	}
 
 	/**
@@ -49,50 +94,511 @@ public class Image {
 			System.exit(0);
 		}
 	}
+	
+	/**
+	 * Retrieves the pixels of the image being traced.
+	 * 
+	 * @return the buffered image written to by every tile
+	 */
+	BufferedImage getImageData() {
+		return imageData;
+	}
 
 	/**
 	 * Loops through each pixel within the image and casts a ray through each pixel at a given
-	 * point. Sets the intensity of each pixel dependent on the traced ray.
+	 * point. Sets the intensity of each pixel dependent on the traced ray. The image is split 
+	 * into tiles which are traced in parallel.
 	 * 
 	 * @param camera - The viewpoint of the image
 	 * @param scene - The scene to determine what is visible from the viewpoint
 	 */
 	public void rayTrace(Camera camera, Scene scene) {
-		double width = (double) imageWidth;
-		double height = (double) imageHeight;
-		
-		// Construct tree using the depth
-		KDTree tree = scene.buildTree(1000);
-		Node root = tree.getRoot();
+		scheduler.startFrame();
+		// Construct tree using the depth, or reuse the tree from the last frame
+		KDTree tree = scene.updateTree(1000);
 
 		System.out.println("Tree constructed.");
 		System.out.println(scene.getShapesListLength() + " total shapes");
-		Color colour = null;
+		resetFrameCounters();
+		prepareOcclusionCache(true);
+		prepareShadowMaps(scene);
+		gBuffer = recordGBuffer || rasterise ? new GBuffer(imageWidth, imageHeight, camera) : null;
+		lastCamera = camera;
+		recordedLights = scene.getLightsListLength();
+		
+		// Split the image into tiles, traced in parallel
+		ArrayList<TileRecord> frameTiles = scheduler.createTiles();
+		tiles = recordTiles ? frameTiles : null;
+		if (!scheduler.renderFrame(camera, scene, tree, frameTiles, maxDepth)) {
+			gBuffer = null;
+			tiles = null;
+		}
+	}
+	
+	/**
+	 * Traces every tile of the image at full quality, drawing the primary hits first when 
+	 * rasterising.
+	 * 
+	 * @param camera - The viewpoint of the image
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles of the image
+	 * @param depth - Most rays along a path, counting the camera ray
+	 */
+	void renderFullPass(Camera camera, Scene scene, KDTree tree, List<TileRecord> list, int depth) {
+		if (rasterise) {
+			// Draw the primary hits, then shade them with rays as if reshading
+			new Rasteriser(camera, imageWidth, imageHeight, aspectRatio, SAMPLE_OFFSETS).render(scene, gBuffer);
+			renderTiles(camera, scene, tree, list, recordTiles, true, depth);
+		} else {
+			renderTiles(camera, scene, tree, list, recordTiles, false, depth);
+		}
+	}
+	
+	/**
+	 * Traces tiles at full quality with rays from the camera, even when rasterising, recording 
+	 * what they depend on if tile records are on. Used to trace a sample of the full pass.
+	 * 
+	 * @param camera - The viewpoint of the image
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles to trace
+	 * @param depth - Most rays along a path, counting the camera ray
+	 */
+	void renderTracedTiles(Camera camera, Scene scene, KDTree tree, List<TileRecord> list, int depth) {
+		renderTiles(camera, scene, tree, list, recordTiles, false, depth);
+	}
+	
+	/**
+	 * Checks if the frame has run out of time, so tiles should stop where they are.
+	 * 
+	 * @return true once the time to stop at has passed
+	 */
+	boolean isPastDeadline() {
+		return scheduler.isPastStop();
+	}
+	
+	/**
+	 * Traces one coarse pass over a tile. Tiles are a multiple of every block size, so blocks 
+	 * never cross tiles.
+	 * 
+	 * @param camera - The viewpoint of the image
+	 * @param generator - Generator of rays through the centre of each pixel
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param tile - The tile to trace
+	 * @param block - Side of the blocks filled by each ray
+	 * @param traced - Side of the blocks of the pass before, whose pixels are not traced again, 
+	 * 		   or 0 for the first pass
+	 * @param depth - Most rays along a path, counting the camera ray
+	 * @return true if every block was traced, false if the frame had to stop part way through
+	 */
+	boolean renderPreviewTile(Camera camera, RayGenerator generator, Scene scene, KDTree tree, TileRecord tile, 
+			int block, int traced, int depth) {
+		int width = tile.getWidth();
+		int height = tile.getHeight();
+		int across = (width + block - 1) / block;
+		int down = (height + block - 1) / block;
+		int order[] = new int[across * down];
+		int count = 0;
+		for (int y = 0; y < height; y += block) {
+			for (int x = 0; x < width; x += block) {
+				if (traced == 0 || x % traced != 0 || y % traced != 0) {
+					order[count++] = y * width + x;
+				}
+			}
+		}
+		
+		RenderStats.primaryRayCounter.add(count);
+		RayBuffer rays = RayBuffer.forThread();
+		generator.fill(rays, tile.getX(), tile.getY(), width, Arrays.copyOf(order, count));
+		Point origin = generator.getOrigin();
+		for (int i = 0; i < count; i++) {
+			if (scheduler.isPastStop()) {
+				return false;
+			}
+			int x = order[i] % width;
+			int y = order[i] / width;
+			int rgb = trace(camera, rays.toRay(i, origin), scene, tree, Color.BLACK, 0, depth).getRGB();
+			for (int blockY = y; blockY < Math.min(y + block, height); blockY++) {
+				for (int blockX = x; blockX < Math.min(x + block, width); blockX++) {
+					imageData.setRGB(tile.getX() + blockX, tile.getY() + blockY, rgb);
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Traces a list of tiles, spreading them over a pool of threads. Each thread takes the 
+	 * next tile from the list once it finishes the last, so busy tiles do not hold up the rest.
+	 * 
+	 * @param camera - The viewpoint of the image
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param list - The tiles to trace
+	 * @param record - true to record what each tile depends on
+	 * @param fromGBuffer - true to shade the primary hits of the G-buffer instead of tracing them
+	 * @param depth - Most rays along a path, counting the camera ray
+	 */
+	void renderTiles(Camera camera, Scene scene, KDTree tree, List<TileRecord> list, boolean record, boolean fromGBuffer, 
+			int depth) {
+		// Build the light hierarchy up front so threads only ever read it
+		scene.getLightTree();
+		RayGenerator generator = new RayGenerator(camera, imageWidth, imageHeight, aspectRatio, SAMPLE_OFFSETS);
+		// Each thread traces its tiles in waves with its own queues
+		ThreadLocal<WavefrontRenderer> wavefronts = wavefront && !fromGBuffer 
+				? ThreadLocal.withInitial(() -> new WavefrontRenderer(this, scene, tree, gBuffer, depth, shadows, secondaryRayBudget, raySorting)) 
+				: null;
 		
-		// Loop through all pixels in image for any intersections
-		for (int y = 0; y < imageHeight; y++) {
-			for (int x = 0; x < imageWidth; x++) {
-				Point pointOnImage = findPointOnImage((double) x, (double) y, width, height, 0.25, 0.25);
-				Point pointOnImage2 = findPointOnImage((double) x, (double) y, width, height, 0.75, 0.25);
-				Point pointOnImage3 = findPointOnImage((double) x, (double) y, width, height, 0.25, 0.75);
-				Point pointOnImage4 = findPointOnImage((double) x, (double) y, width, height, 0.75, 0.75);
-				
-				Ray ray = camera.fireAt(pointOnImage);
-				Ray ray2 = camera.fireAt(pointOnImage2);	
-				Ray ray3 = camera.fireAt(pointOnImage3);	
-				Ray ray4 = camera.fireAt(pointOnImage4);	
-				
-				Color c1 = trace(camera, ray, scene, tree, root, colour, 0);	
-				Color c2 = trace(camera, ray2, scene, tree, root, colour, 0);		
-				Color c3 = trace(camera, ray3, scene, tree, root, colour, 0);		
-				Color c4 = trace(camera, ray4, scene, tree, root, colour, 0);		
+		scheduler.forEachTile(list, tile -> renderTile(camera, generator, scene, tree, tile, record, fromGBuffer, wavefronts, depth));
+	}
+	
+	/**
+	 * Traces the pixels of one tile of the image.
+	 * 
+	 * @param camera - The viewpoint of the image
+	 * @param generator - Writes the rays fired from the camera
+	 * @param scene - The scene to determine what is visible from the viewpoint
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param tile - The tile to trace
+	 * @param record - true to record what the tile depends on into its record
+	 * @param fromGBuffer - true to shade the primary hits of the G-buffer instead of tracing them
+	 * @param wavefronts - The wavefront renderer of each thread, or null to trace each ray to the end in turn
+	 * @param depth - Most rays along a path, counting the camera ray
+	 * @return true if every pixel was traced, false if the frame had to stop part way through
+	 */
+	private boolean renderTile(Camera camera, RayGenerator generator, Scene scene, KDTree tree, TileRecord tile, 
+			boolean record, boolean fromGBuffer, ThreadLocal<WavefrontRenderer> wavefronts, int depth) {
+		TileRecord.begin(record ? tile : null);
+		int order[] = scheduler.traversalOrder(tile.getWidth(), tile.getHeight());
+		RayBuffer rays = RayBuffer.forThread();
+		// Primary rays start from the nodes the tile can see instead of the root
+		Node entries[] = null;
+		if (frustumCulling && !fromGBuffer) {
+			entries = tree.cull(generator.getFrustum(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight()));
+			if (entries.length == 0 && !tree.hasUnboundedShapes()) {
+				fillBackground(tile);
+				TileRecord.end();
+				return true;
+			}
+		}
+		
+		generator.fill(rays, tile.getX(), tile.getY(), tile.getWidth(), order);
+		Point origin = generator.getOrigin();
+		RenderStats.primaryRayCounter.add(order.length * GBuffer.SAMPLES);
+		
+		if (wavefronts != null) {
+			WavefrontRenderer renderer = wavefronts.get();
+			Color colours[] = renderer.render(tile, order, rays, origin, entries);
+			for (int i = 0; i < order.length; i++) {
+				imageData.setRGB(tile.getX() + order[i] % tile.getWidth(), tile.getY() + order[i] / tile.getWidth(), colours[i].getRGB());
+			}
+			TileRecord.end();
+			return !renderer.wasCutShort();
+		}
+		
+		Color samples[] = new Color[GBuffer.SAMPLES];
+		// Shape hit by each camera ray of the pixel, checked first by the rays after it
+		Shape pixelHits[] = new Shape[GBuffer.SAMPLES];
+		
+		Color colour = null;
+		int index = 0;
+		for (int pixel : order) {
+			// Pixels left untraced keep the colour of the coarser pass before
+			if (scheduler.isPastStop()) {
+				TileRecord.end();
+				return false;
+			}
+			int x = tile.getX() + pixel % tile.getWidth();
+			int y = tile.getY() + pixel / tile.getWidth();
+			// All rays of the pixel share one budget of reflection rays
+			RayBudget budget = secondaryRayBudget > 0 ? new RayBudget(secondaryRayBudget) : null;
+			for (int sample = 0; sample < GBuffer.SAMPLES; sample++) {
+				Ray ray = rays.toRay(index++, origin);
+				ray.setBudget(budget);
+				if (fromGBuffer) {
+					samples[sample] = reshadeSample(camera, ray, scene, tree, gBuffer.index(x, y, sample), depth);
+				} else {
+					samples[sample] = tracePrimary(camera, ray, scene, tree, entries, x, y, sample, pixelHits, depth);
+				}
+			}
 
-				colour = getPixelIntensity(c1,c2,c3,c4);
-				imageData.setRGB(x, y, colour.getRGB());	
+			colour = getPixelIntensity(samples[0], samples[1], samples[2], samples[3]);
+			imageData.setRGB(x, y, colour.getRGB());	
+		}
+		TileRecord.end();
+		return true;
+	}
+	
+	/**
+	 * Fills a tile that no ray can hit anything from with the background, without tracing it.
+	 * 
+	 * @param tile - The tile to fill
+	 */
+	private void fillBackground(TileRecord tile) {
+		for (int y = tile.getY(); y < tile.getY() + tile.getHeight(); y++) {
+			for (int x = tile.getX(); x < tile.getX() + tile.getWidth(); x++) {
+				imageData.setRGB(x, y, Color.BLACK.getRGB());
+				for (int sample = 0; gBuffer != null && sample < GBuffer.SAMPLES; sample++) {
+					gBuffer.storeMiss(gBuffer.index(x, y, sample));
+				}
 			}
 		}
 	}
 	
+	/**
+	 * Traces again only the tiles that could have changed since the last call to rayTrace, 
+	 * keeping the rest of the image as it was. A tile is traced again if it depended on a 
+	 * changed shape, light or material, if a moved shape now covers it or could shadow it, 
+	 * or if it has reflections. Adding or removing lights changes the ambient light of every 
+	 * tile, so the whole image is traced again.
+	 * 
+	 * @param scene - The edited scene
+	 * @param edit - What changed in the scene
+	 * @return the number of tiles traced again
+	 */
+	public int rerender(Scene scene, SceneEdit edit) {
+		if (tiles == null) {
+			throw new IllegalStateException("No tile records, turn them on before calling rayTrace");
+		}
+		
+		KDTree tree = scene.updateTree(1000);
+		resetFrameCounters();
+		prepareOcclusionCache(!edit.getShapes().isEmpty());
+		prepareShadowMaps(scene);
+		
+		// Sampled lights are picked by how bright they are everywhere, so any change affects every tile
+		boolean everyTile = scene.getLightsListLength() != recordedLights 
+				|| (!edit.getLights().isEmpty() && lightSamples > 0 && recordedLights > lightSamples);
+		// Shadow maps do not say which shape blocked a light, so a shape could shadow any tile
+		everyTile |= shadowMaps != null && !edit.getShapes().isEmpty();
+		recordedLights = scene.getLightsListLength();
+		
+		ArrayList<TileRecord> affected = new ArrayList<>();
+		for (TileRecord record : tiles) {
+			if (everyTile || isAffected(record, edit)) {
+				affected.add(record);
+			}
+		}
+		renderTiles(lastCamera, scene, tree, affected, true, false, maxDepth);
+		return affected.size();
+	}
+	
+	/**
+	 * Checks if an edit to the scene could change a tile.
+	 * 
+	 * @param record - What the tile depended on when it was last traced
+	 * @param edit - What changed in the scene
+	 * @return true if the tile needs to be traced again
+	 */
+	private boolean isAffected(TileRecord record, SceneEdit edit) {
+		for (int materialId : edit.getMaterials()) {
+			if (record.hasMaterial(materialId)) {
+				return true;
+			}
+		}
+		
+		for (Light light : edit.getLights()) {
+			if (record.hasLight(light)) {
+				return true;
+			}
+			// A light that has moved closer may now be bright enough to reach the tile
+			double distance = record.distanceTo(light.getPosition());
+			if (light.getIntensity() * light.attenuation(distance) >= lightCutoff) {
+				return true;
+			}
+		}
+		
+		for (Shape shape : edit.getShapes()) {
+			if (!shape.isBounded() || record.isReflective() || record.hasShape(shape)) {
+				return true;
+			}
+			int pixels[] = findPixelsCovering(lastCamera, shape);
+			if (record.overlapsPixels(pixels[0], pixels[1], pixels[2], pixels[3])) {
+				return true;
+			}
+			for (Light light : record.getLights()) {
+				if (record.couldShadow(light, shape)) {
+					return true;
+				}
+			}
+			if (ambientOcclusion != null && record.isWithin(shape, ambientOcclusion.getMaxDistance())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds the rectangle of pixels the bounding box of a shape covers, by projecting its 
+	 * corners back onto the image. The inverse of the rays written by RayGenerator.
+	 * 
+	 * @param camera - The viewpoint of the image
+	 * @param shape - The bounded shape
+	 * @return smallest x, smallest y, largest x and largest y of the pixels covered
+	 */
+	private int[] findPixelsCovering(Camera camera, Shape shape) {
+		double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE;
+		double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+		Point origin = camera.getViewPoint();
+		
+		for (int corner = 0; corner < 8; corner++) {
+			Point point = new Point((corner & 1) == 0 ? shape.getMinX() : shape.getMaxX(), 
+					(corner & 2) == 0 ? shape.getMinY() : shape.getMaxY(), 
+					(corner & 4) == 0 ? shape.getMinZ() : shape.getMaxZ());
+			Vector toPoint = new Vector(origin, point);
+			double depth = toPoint.dot(camera.getVPN());
+			if (depth <= 0) {
+				// Corners behind the camera could cover any part of the image
+				return new int[] {0, 0, imageWidth - 1, imageHeight - 1};
+			}
+			double xPos = toPoint.dot(camera.getVRV()) / (depth * camera.getWidth());
+			double yPos = toPoint.dot(camera.getVUV()) / (depth * camera.getHeight());
+			double x = (1.0 - xPos / aspectRatio) * imageWidth / 2.0;
+			double y = (1.0 - yPos) * imageHeight / 2.0;
+			xMin = Math.min(xMin, x);
+			yMin = Math.min(yMin, y);
+			xMax = Math.max(xMax, x);
+			yMax = Math.max(yMax, y);
+		}
+		
+		// Widen by a pixel either side as samples are offset within each pixel
+		return new int[] {(int) Math.floor(xMin) - 1, (int) Math.floor(yMin) - 1, 
+				(int) Math.ceil(xMax) + 1, (int) Math.ceil(yMax) + 1};
+	}
+	
+	/**
+	 * Shades the image again from the primary hits stored by the last call to rayTrace, 
+	 * without tracing any rays from the camera. Used after changing lights or materials, 
+	 * shadow rays and reflections are still traced against the scene.
+	 * 
+	 * @param scene - The scene holding the lights and geometry the buffer was recorded with
+	 */
+	public void reshade(Scene scene) {
+		if (gBuffer == null) {
+			throw new IllegalStateException("No G-buffer recorded, turn it on before calling rayTrace");
+		}
+		
+		// Geometry is unchanged so the tree of the last frame is reused
+		KDTree tree = scene.updateTree(1000);
+		Camera camera = gBuffer.getCamera();
+		resetFrameCounters();
+		prepareOcclusionCache(false);
+		prepareShadowMaps(scene);
+		renderTiles(camera, scene, tree, scheduler.createTiles(), false, true, maxDepth);
+	}
+	
+	/**
+	 * Draws a shadow map around every light when shadow maps are in use. Maps are drawn again 
+	 * every frame as lights and shapes may have moved.
+	 * 
+	 * @param scene - Scene containing all objects and lights
+	 */
+	private void prepareShadowMaps(Scene scene) {
+		if (!shadows || shadowMode != ShadowMode.SHADOW_MAP) {
+			shadowMaps = null;
+			return;
+		}
+		
+		long start = System.nanoTime();
+		shadowMaps = new IdentityHashMap<>();
+		for (int i = 0; i < scene.getLightsListLength(); i++) {
+			Light light = scene.getLightsList(i);
+			shadowMaps.put(light, new ShadowMap(light, scene, shadowMapResolution));
+		}
+		RenderStats.shadowMapTime.add(System.nanoTime() - start);
+	}
+	
+	/**
+	 * Makes sure the ambient occlusion cache matches the current settings. Occlusion only 
+	 * depends on geometry, so entries are kept between frames unless the geometry may have 
+	 * changed.
+	 * 
+	 * @param geometryChanged - true to forget every entry
+	 */
+	private void prepareOcclusionCache(boolean geometryChanged) {
+		if (ambientOcclusion == null || occlusionCacheTolerance <= 0) {
+			occlusionCache = null;
+		} else if (occlusionCache == null || geometryChanged || occlusionCache.getAmbientOcclusion() != ambientOcclusion) {
+			occlusionCache = new OcclusionCache(ambientOcclusion, occlusionCacheTolerance);
+		}
+	}
+	
+	/**
+	 * Shades one sample again from the primary hit stored in the G-buffer.
+	 * 
+	 * @param camera - Viewpoint of the image
+	 * @param ray - The primary ray of the sample, fired again from the camera
+	 * @param scene - Scene containing all objects
+	 * @param tree - Acceleration structure used for shadow and reflected rays
+	 * @param index - Index of the sample in the G-buffer
+	 * @param depth - Most rays along a path, counting the camera ray
+	 * @return Colour intensity of the sample
+	 */
+	private Color reshadeSample(Camera camera, Ray ray, Scene scene, KDTree tree, int index, int depth) {
+		if (!gBuffer.isHit(index)) {
+			return Color.BLACK;
+		}
+		ray.setDistance(gBuffer.getDistance(index));
+		TileRecord record = TileRecord.current();
+		if (record != null) {
+			record.addShape(gBuffer.getShapeId(index));
+			record.addMaterial(gBuffer.getMaterialId(index));
+		}
+		Material material = MaterialTable.get(gBuffer.getMaterialId(index));
+		return shade(camera, ray, material, gBuffer.getNormal(index), scene, tree, 0, depth);
+	}
+	
+	/**
+	 * Clears the per frame counters and caches before tracing or shading the image.
+	 */
+	private void resetFrameCounters() {
+		RenderStats.resetFrame();
+		OccluderCache.clearAll();
+	}
+	
+	/**
+	 * Traces a ray from the camera, storing what it hit in the G-buffer when one is being 
+	 * recorded. The rays of a pixel usually hit the same shape, so the last shape hit by an 
+	 * earlier ray of the pixel is checked first and the tree is only searched in front of it.
+	 * 
+	 * @param camera - Viewpoint of the image
+	 * @param ray - Ray casted from the camera into the scene
+	 * @param scene - Scene containing all objects
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param entries - Nodes of the tree the tile can reach, or null to start from the root
+	 * @param x - Pixel x
+	 * @param y - Pixel y
+	 * @param sample - Which ray of the pixel is being traced
+	 * @param pixelHits - Shape hit by each earlier ray of the pixel, the shape this ray hits is 
+	 * 		   stored into it
+	 * @param depth - Most rays along a path, counting the camera ray
+	 * @return Colour intensity of the sample
+	 */
+	private Color tracePrimary(Camera camera, Ray ray, Scene scene, KDTree tree, Node entries[], 
+			int x, int y, int sample, Shape pixelHits[], int depth) {
+		Shape hint = null;
+		for (int i = sample - 1; i >= 0 && hint == null; i--) {
+			hint = pixelHits[i];
+		}
+		Shape shape = entries == null ? tree.findShapeWith(ray, hint) : tree.findShapeWith(ray, entries, hint);
+		pixelHits[sample] = shape;
+		if (shape == null) {
+			if (gBuffer != null) {
+				gBuffer.storeMiss(gBuffer.index(x, y, sample));
+			}
+			return Color.BLACK;
+		}
+		recordHit(shape, ray);
+		
+		Vector shapeNormal = shape.getNormal(ray);
+		if (gBuffer != null) {
+			gBuffer.store(gBuffer.index(x, y, sample), shape, ray.getDistance(), shapeNormal, shape.getMaterialId(ray));
+		}
+		return shade(camera, ray, shape.getMaterial(ray), shapeNormal, scene, tree, 0, depth);
+	}
+	
 	/**
 	 * Calculates the intensity of each pixel by checking for intersections in the scene. Uses
 	 * the colour of each intersection point to determine the intensity of each pixel within
@@ -102,20 +608,17 @@ public class Image {
 	 * @param ray - Ray casted from the camera into the scene
 	 * @param scene - Scene containing all objects
 	 * @param tree - Acceleration structure to allow fast traversal for efficiency
-	 * @param root - The initial bounding box surrounding the object(s)
 	 * @param colour - The colour obtained at the intersection points
 	 * @param round - Depth of the rays in the scene
+	 * @param depth - Most rays along a path, counting the camera ray
 	 * @return Colour intensity of the pixel from the traced ray
 	 */
-	public Color trace(Camera camera, Ray ray, Scene scene, KDTree tree, Node root, Color colour, int round) {
+	public Color trace(Camera camera, Ray ray, Scene scene, KDTree tree, Color colour, int round, int depth) {
 		// Return colour if at max depth
-		if (round == MAX_DEPTH) 
+		if (round == depth) 
 			return colour;
 		// Traverse through tree to find intersections
-		Shape shape = tree.findShapeWith(root, ray);
-		
-		Light light = scene.getLightsList(0);
-		Ray shadowRay, reflectedRay = null;
+		Shape shape = tree.findShapeWith(ray);
 		
 		if (shape == null) {
 			if (round > 0) {
@@ -125,43 +628,738 @@ public class Image {
 			}
 		}
 		
+		recordHit(shape, ray);
+		return shade(camera, ray, shape.getMaterial(ray), shape.getNormal(ray), scene, tree, round, depth);
+	}
+	
+	/**
+	 * Records a shape hit by a ray, and its material, in the tile being traced.
+	 * 
+	 * @param shape - The shape hit
+	 * @param ray - The ray that hit the shape
+	 */
+	void recordHit(Shape shape, Ray ray) {
+		TileRecord record = TileRecord.current();
+		if (record != null) {
+			record.addShape(shape);
+			record.addMaterial(shape.getMaterialId(ray));
+		}
+	}
+	
+	/**
+	 * Calculates the colour of the surface hit by a ray, firing a reflected ray if the 
+	 * surface is reflective.
+	 * 
+	 * @param camera - Viewpoint of the image
+	 * @param ray - Ray with its distance set to the hit
+	 * @param material - Material of the surface hit
+	 * @param shapeNormal - Normal of the surface at the hit
+	 * @param scene - Scene containing all objects
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param round - Depth of the ray in the scene
+	 * @param depth - Most rays along a path, counting the camera ray
+	 * @return Colour intensity at the hit
+	 */
+	private Color shade(Camera camera, Ray ray, Material material, Vector shapeNormal, Scene scene, KDTree tree, int round, 
+			int depth) {
 		Point pointOfIntersection = ray.getIntersectionPoint();
-		Vector lightDirection = new Vector(pointOfIntersection, light.getPosition()).normalise();
-			
-		double ambientReflection = shape.getAmbient();
-		double ambient = ambientReflection * light.getIntensity();		
-		double diffuseReflection = shape.getDiffuse();
-		double specularReflection = shape.getSpecular();
-		double shine = 400;			
-		
-		colour = shape.getColour();
-		Vector shapeNormal = shape.getNormal();
+		double specularReflection = material.getSpecular();
+		
+		Color colour = material.getColour();
+		
+		TileRecord record = TileRecord.current();
+		if (record != null) {
+			record.addPoint(pointOfIntersection);
+			if (specularReflection > 0 && round + 1 < depth) {
+				record.setReflective();
+			}
+		}
 			
-		// 2(L.N) * N - L
-		Vector rayReflection = (shapeNormal.minus(ray.getDirection()).times(2.0 * ray.getDirection().dot(shapeNormal))).normalise().negate();
+		Vector rayReflection = reflectionDirection(ray, shapeNormal);
 
-		// Calculate Phong value using formula
-		double diffuse = diffuseReflection * light.getIntensity() * lightDirection.dot(shapeNormal);
-		double specular = specularReflection * light.getIntensity() * Math.pow(lightDirection.dot(shapeNormal), shine);
-		double phong = ambient + diffuse + specular;		
+		// Calculate Phong value from every light that reaches the point
+		double ambientVisibility = calculateAmbientVisibility(pointOfIntersection, shapeNormal, ray.getDirection(), tree);
+		double phong = calculatePhong(material, pointOfIntersection, shapeNormal, ambientVisibility, scene, tree);
 		colour = performColourMap(colour, phong);
 
-		// Fire reflective ray if object is reflective
-		if (shape.getSpecular() > 0) {
-			reflectedRay = new Ray(pointOfIntersection, rayReflection); 
-			colour = trace(camera, reflectedRay, scene, tree, root, colour, round + 1);
+		// Fire reflective ray if object is reflective and the path has not been cut short
+		if (specularReflection > 0) {
+			if (round + 1 < depth) {
+				Ray reflectedRay = reflect(ray, pointOfIntersection, rayReflection, specularReflection);
+				if (reflectedRay != null) {
+					colour = trace(camera, reflectedRay, scene, tree, colour, round + 1, depth);
+				}
+			}
 			colour = performColourMap(colour, phong);
 		}
-
-		shadowRay = new Ray(pointOfIntersection, lightDirection);
-		// Check for shadow rays in scene
-//		Shape inShade = tree.findShapeWith(root, shadowRay);
-//		if (inShade != null && inShade != shape) {
-//			return performColourMap(colour, ambient);
-//		}
 		
 		return colour;
 	}
+	
+	/**
+	 * Calculates the direction a ray is reflected in off a surface.
+	 * 
+	 * @param ray - The ray that hit the surface
+	 * @param shapeNormal - Normal of the surface at the hit
+	 * @return the unit direction of the reflected ray
+	 */
+	Vector reflectionDirection(Ray ray, Vector shapeNormal) {
+		// 2(L.N) * N - L
+		return (shapeNormal.minus(ray.getDirection()).times(2.0 * ray.getDirection().dot(shapeNormal))).normalise().negate();
+	}
+	
+	/**
+	 * Finds the point to start shadow rays from, just off the surface so they do not hit the 
+	 * shape itself.
+	 * 
+	 * @param pointOfIntersection - The point being shaded
+	 * @param shapeNormal - Unit normal of the shape at the point
+	 * @return the start of the shadow rays
+	 */
+	Point shadowOrigin(Point pointOfIntersection, Vector shapeNormal) {
+		return pointOfIntersection.add(shapeNormal.times(SHADOW_BIAS));
+	}
+	
+	/**
+	 * Creates the reflected ray off a surface, unless the path is ended early. Paths carrying 
+	 * little colour back to the camera are cut short at random, more often the less they 
+	 * carry. Surviving paths carry on with a higher throughput, which only makes them less 
+	 * likely to be cut again; their colour is not weighted up, so this is a random depth 
+	 * cutoff that trades some bias and noise for fewer rays, not an unbiased estimate. Paths 
+	 * are also ended once the pixel has used its budget of reflection rays.
+	 * 
+	 * @param ray - The ray that hit the surface
+	 * @param pointOfIntersection - The point on the surface
+	 * @param direction - Direction of the reflected ray
+	 * @param specularReflection - The specular reflectivity of the surface
+	 * @return the reflected ray, or null if the path ends here
+	 */
+	Ray reflect(Ray ray, Point pointOfIntersection, Vector direction, double specularReflection) {
+		double throughput = ray.getThroughput() * specularReflection;
+		
+		if (russianRoulette && throughput < ROULETTE_THRESHOLD) {
+			double survival = throughput / ROULETTE_THRESHOLD;
+			if (ThreadLocalRandom.current().nextDouble() >= survival) {
+				RenderStats.russianRouletteCounter.increment();
+				return null;
+			}
+			throughput = ROULETTE_THRESHOLD;
+		}
+		
+		RayBudget budget = ray.getBudget();
+		if (budget != null && !budget.spend()) {
+			RenderStats.budgetExhaustedCounter.increment();
+			return null;
+		}
+		
+		RenderStats.reflectionRayCounter.increment();
+		Ray reflectedRay = new Ray(pointOfIntersection, direction);
+		reflectedRay.setThroughput(throughput);
+		reflectedRay.setBudget(budget);
+		return reflectedRay;
+	}
+	
+	/**
+	 * Turns wavefront tracing on or off. When on, each tile is traced in waves: every ray of 
+	 * the tile is traced, then every hit is shaded, then every shadow ray fired, with reflected 
+	 * rays making up the next wave. Images from the G-buffer are still shaded one ray at a time.
+	 * 
+	 * @param wavefront - true to trace tiles in waves
+	 */
+	public void setWavefront(boolean wavefront) {
+		this.wavefront = wavefront;
+	}
+	
+	/**
+	 * Sets how shadows are found. Shadow maps are drawn once per light each frame and are much 
+	 * faster to look up than firing shadow rays, but miss small shapes and soften edges, so 
+	 * they suit previews.
+	 * 
+	 * @param shadowMode - RAY_TRACED for exact shadows, SHADOW_MAP for approximate shadows
+	 */
+	public void setShadowMode(ShadowMode shadowMode) {
+		this.shadowMode = shadowMode;
+	}
+	
+	/**
+	 * Sets the number of texels along each side of each face of the shadow maps.
+	 * 
+	 * @param shadowMapResolution - texels along a side
+	 */
+	public void setShadowMapResolution(int shadowMapResolution) {
+		if (shadowMapResolution < 1) {
+			throw new IllegalArgumentException("Shadow maps need at least one texel");
+		}
+		this.shadowMapResolution = shadowMapResolution;
+	}
+	
+	/**
+	 * Turns frustum culling of tiles on or off. When on, the tree is culled against the rays 
+	 * of each tile once, and the rays from the camera start from the nodes left instead of the 
+	 * root. Tiles that cannot see anything are filled with the background without tracing.
+	 * 
+	 * @param frustumCulling - true to cull the tree for each tile
+	 */
+	public void setFrustumCulling(boolean frustumCulling) {
+		this.frustumCulling = frustumCulling;
+	}
+	
+	/**
+	 * Turns rasterised primary visibility on or off. When on, what each camera ray hits is 
+	 * found by drawing the triangles of the scene into a depth buffer, and rays are only 
+	 * traced for shadows and reflections. The hits are kept in the G-buffer.
+	 * 
+	 * @param rasterise - true to draw the primary hits instead of tracing them
+	 */
+	public void setRasterise(boolean rasterise) {
+		this.rasterise = rasterise;
+	}
+	
+	/**
+	 * Turns sorting of reflected rays on or off when tracing in waves. When on, each wave of 
+	 * reflected rays is sorted by the direction they point in and the cell of the scene they 
+	 * start from, so rays likely to pass through the same parts of the tree are traced 
+	 * together.
+	 * 
+	 * @param raySorting - true to sort reflected rays before tracing them
+	 */
+	public void setRaySorting(boolean raySorting) {
+		this.raySorting = raySorting;
+	}
+	
+	/**
+	 * Turns Morton order on or off. When on, tiles and the pixels within them are traced along 
+	 * a Z-order curve instead of in rows, so consecutive rays reuse the same tree nodes.
+	 * 
+	 * @param mortonOrder - true to trace along a Z-order curve
+	 */
+	public void setMortonOrder(boolean mortonOrder) {
+		scheduler.setMortonOrder(mortonOrder);
+	}
+	
+	/**
+	 * Turns progressive rendering on or off. When on, rayTrace first traces coarse passes 
+	 * with one ray for each 8x8, then 4x4, then 2x2 block of pixels, and publishes each to the 
+	 * preview file and listener so something can be shown long before the full image is done. 
+	 * The full pass after them gives the same image as without previews.
+	 * 
+	 * @param progressive - true to trace coarse previews first
+	 */
+	public void setProgressive(boolean progressive) {
+		scheduler.setProgressive(progressive);
+	}
+	
+	/**
+	 * Sets the file the previews of a progressive frame are written to.
+	 * 
+	 * @param fileName - path of the PNG to write, or null to not write previews
+	 */
+	public void setPreviewFile(String fileName) {
+		scheduler.setPreviewFile(fileName == null ? null : new File(fileName));
+	}
+	
+	/**
+	 * Sets the shortest time between two previews of a progressive frame. The first preview 
+	 * and the final image are always published.
+	 * 
+	 * @param previewInterval - milliseconds between previews, or 0 to publish after each 
+	 * 		   coarse pass and never during the full pass
+	 */
+	public void setPreviewInterval(long previewInterval) {
+		scheduler.setPreviewInterval(previewInterval);
+	}
+	
+	/**
+	 * Sets the listener handed each preview of a progressive frame.
+	 * 
+	 * @param previewListener - the listener, or null for none
+	 */
+	public void setPreviewListener(PreviewListener previewListener) {
+		scheduler.setPreviewListener(previewListener);
+	}
+	
+	/**
+	 * Retrieves the time from the start of the last progressive frame until its first preview 
+	 * was published.
+	 * 
+	 * @return milliseconds to the first preview, or -1 if none was published
+	 */
+	public long getFirstPreviewTime() {
+		return scheduler.getFirstPreviewTime();
+	}
+	
+	/**
+	 * Retrieves the time from the start of the last frame until it was fully traced.
+	 * 
+	 * @return milliseconds to the final image, or -1 if no frame has been traced
+	 */
+	public long getFinalFrameTime() {
+		return scheduler.getFinalFrameTime();
+	}
+	
+	/**
+	 * Sets a time limit for each frame traced by rayTrace. The quality of the frame is 
+	 * lowered as needed to finish in time, trading first reflections, then samples per 
+	 * pixel, then resolution. The first pass, one ray without reflections for each 8x8 block, 
+	 * stops at the deadline like the rest, so on a very short deadline blocks it did not reach 
+	 * keep the colours of the frame before.
+	 * 
+	 * @param deadline - milliseconds from the call to rayTrace, or 0 for no limit
+	 */
+	public void setDeadline(long deadline) {
+		if (deadline < 0) {
+			throw new IllegalArgumentException("The deadline cannot be negative");
+		}
+		scheduler.setDeadline(deadline);
+	}
+	
+	/**
+	 * Retrieves the quality the last frame was traced at.
+	 * 
+	 * @return the quality of the last frame, or null if no frame has been traced
+	 */
+	public FrameQuality getFrameQuality() {
+		return scheduler.getFrameQuality();
+	}
+	
+	/**
+	 * Sets the number of threads tiles are traced on.
+	 * 
+	 * @param threads - number of threads, 1 to trace on the calling thread
+	 */
+	public void setThreads(int threads) {
+		scheduler.setThreads(threads);
+	}
+	
+	/**
+	 * Stops the threads tiles are traced on, which are otherwise kept for the next frame. The 
+	 * image can still be traced afterwards, new threads are started when needed.
+	 */
+	public void shutdown() {
+		scheduler.shutdown();
+	}
+	
+	/**
+	 * Turns ambient occlusion on or off. When on, the ambient light at each point is scaled by 
+	 * the fraction of occlusion rays that escape.
+	 * 
+	 * @param ambientOcclusion - the estimator to use, or null for constant ambient light
+	 */
+	public void setAmbientOcclusion(AmbientOcclusion ambientOcclusion) {
+		this.ambientOcclusion = ambientOcclusion;
+	}
+	
+	/**
+	 * Sets how closely cached ambient occlusion has to match before it is reused. Higher values 
+	 * reuse entries from further away, firing fewer rays at the cost of smoother occlusion. The 
+	 * error is estimated, not bounded, see OcclusionCache.
+	 * 
+	 * @param occlusionCacheTolerance - largest estimated change in visibility to reuse, 0 to fire 
+	 * 		   rays at every point
+	 */
+	public void setOcclusionCache(double occlusionCacheTolerance) {
+		this.occlusionCacheTolerance = occlusionCacheTolerance;
+	}
+	
+	/**
+	 * Retrieves the ambient occlusion cache used by the last frame.
+	 * 
+	 * @return the cache, or null if occlusion is not being cached
+	 */
+	public OcclusionCache getOcclusionCache() {
+		return occlusionCache;
+	}
+	
+	/**
+	 * Turns recording of tile records on or off. When on, rayTrace remembers what each tile 
+	 * depended on so rerender can trace only the tiles changed by an edit.
+	 * 
+	 * @param recordTiles - true to record what each tile depended on
+	 */
+	public void setTileRecords(boolean recordTiles) {
+		this.recordTiles = recordTiles;
+		if (!recordTiles) {
+			tiles = null;
+		}
+	}
+	
+	/**
+	 * Turns recording of the G-buffer on or off. When on, rayTrace stores the primary hits so 
+	 * reshade can be called after changing lights or materials.
+	 * 
+	 * @param recordGBuffer - true to record the primary hits
+	 */
+	public void setGBuffer(boolean recordGBuffer) {
+		this.recordGBuffer = recordGBuffer;
+		if (!recordGBuffer) {
+			gBuffer = null;
+		}
+	}
+	
+	/**
+	 * Retrieves the G-buffer recorded by the last call to rayTrace.
+	 * 
+	 * @return the G-buffer, or null if none was recorded
+	 */
+	public GBuffer getGBuffer() {
+		return gBuffer;
+	}
+	
+	/**
+	 * Sets the maximum depth of rays in the scene. 1 only traces rays from the camera, each 
+	 * extra level allows one more reflection.
+	 * 
+	 * @param maxDepth - the maximum depth of each path, at least 1
+	 * @throws IllegalArgumentException if the depth is below 1
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < 1) {
+			throw new IllegalArgumentException("Paths need a depth of at least 1 for the camera ray");
+		}
+		this.maxDepth = maxDepth;
+	}
+	
+	/**
+	 * Turns Russian roulette on or off. When on, reflections that carry little colour back to 
+	 * the camera are ended at random instead of always being traced to the maximum depth. 
+	 * Ended paths keep the colour found so far, so the image differs slightly from tracing 
+	 * every path to the end, even on average.
+	 * 
+	 * @param russianRoulette - true to end weak paths at random
+	 */
+	public void setRussianRoulette(boolean russianRoulette) {
+		this.russianRoulette = russianRoulette;
+	}
+	
+	/**
+	 * Sets the number of reflection rays each pixel may fire across all of its samples.
+	 * 
+	 * @param secondaryRayBudget - reflection rays per pixel, 0 for no limit
+	 */
+	public void setSecondaryRayBudget(int secondaryRayBudget) {
+		this.secondaryRayBudget = secondaryRayBudget;
+	}
+	
+	/**
+	 * Calculates the Phong value at an intersection point from the lights in the scene. Either 
+	 * every light is shaded, or when light sampling is on a fixed number of lights are picked 
+	 * from the light hierarchy and weighted by the chance of picking them.
+	 * 
+	 * @param material - The material of the shape at the intersection point
+	 * @param pointOfIntersection - The point being shaded
+	 * @param shapeNormal - Unit normal of the shape at the point
+	 * @param ambientVisibility - Fraction of the ambient light reaching the point
+	 * @param scene - Scene containing all lights
+	 * @param tree - Acceleration structure used for shadow rays
+	 * @return the Phong value to apply to the colour of the shape
+	 */
+	private double calculatePhong(Material material, Point pointOfIntersection, Vector shapeNormal, double ambientVisibility, 
+			Scene scene, KDTree tree) {
+		double diffuseReflection = material.getDiffuse();
+		double specularReflection = material.getSpecular();
+		
+		double lighting = 0;
+		Point shadowOrigin = shadowOrigin(pointOfIntersection, shapeNormal);
+		
+		LightSelection selection = LightSelection.forThread();
+		int chosen = selectLights(scene, pointOfIntersection, shapeNormal, selection);
+		for (int i = 0; i < chosen; i++) {
+			double contribution = calculateLight(selection.getLight(i), pointOfIntersection, shadowOrigin, shapeNormal, diffuseReflection, specularReflection, tree);
+			lighting += contribution / selection.getDivisor(i);
+		}
+		
+		return calculateAmbient(material, ambientVisibility, scene) + lighting;
+	}
+	
+	/**
+	 * Picks the lights to shade a point with. Either every light, or when light sampling is on 
+	 * a fixed number of lights picked from the light hierarchy. Each light comes with a divisor 
+	 * for its contribution, the chance of picking it times the number of samples, or 1 when 
+	 * every light is shaded.
+	 * 
+	 * @param scene - Scene containing all lights
+	 * @param pointOfIntersection - The point being shaded
+	 * @param shapeNormal - Unit normal of the shape at the point
+	 * @param selection - Selection to receive the lights picked and their divisors, grown to 
+	 * 		   the number of samples when sampling
+	 * @return the number of lights picked
+	 */
+	int selectLights(Scene scene, Point pointOfIntersection, Vector shapeNormal, LightSelection selection) {
+		int count = scene.getLightsListLength();
+		int chosen = 0;
+		if (lightSamples > 0 && count > lightSamples) {
+			selection.reserve(lightSamples);
+			LightTree lightTree = scene.getLightTree();
+			Random random = ThreadLocalRandom.current();
+			for (int i = 0; i < lightSamples; i++) {
+				Light light = lightTree.sample(pointOfIntersection, shapeNormal, random, selection.probability);
+				if (light != null) {
+					selection.lights[chosen] = light;
+					selection.divisors[chosen] = selection.probability[0] * lightSamples;
+					chosen++;
+				}
+			}
+			RenderStats.skippedLightCounter.add(count - lightSamples);
+		} else {
+			selection.reserve(count);
+			for (int i = 0; i < count; i++) {
+				selection.lights[chosen] = scene.getLightsList(i);
+				selection.divisors[chosen] = 1;
+				chosen++;
+			}
+		}
+		return chosen;
+	}
+	
+	/**
+	 * Calculates the ambient part of the Phong value at a point.
+	 * 
+	 * @param material - The material of the shape at the point
+	 * @param ambientVisibility - Fraction of the ambient light reaching the point
+	 * @param scene - Scene containing all lights
+	 * @return the ambient value
+	 */
+	double calculateAmbient(Material material, double ambientVisibility, Scene scene) {
+		int lights = scene.getLightsListLength();
+		// Ambient light uses the average intensity so adding lights does not wash out the scene
+		return lights > 0 ? material.getAmbient() * ambientVisibility * scene.getLightTree().getTotalIntensity() / lights : 0;
+	}
+	
+	/**
+	 * Calculates how much of the ambient light reaches a point, using ambient occlusion when 
+	 * it is on.
+	 * 
+	 * @param pointOfIntersection - The point being shaded
+	 * @param shapeNormal - Normal of the shape at the point
+	 * @param rayDirection - Direction of the ray that hit the point
+	 * @param tree - Acceleration structure used for occlusion rays
+	 * @return the fraction of the sky visible from the point, 1 without ambient occlusion
+	 */
+	double calculateAmbientVisibility(Point pointOfIntersection, Vector shapeNormal, Vector rayDirection, KDTree tree) {
+		if (ambientOcclusion == null) {
+			return 1;
+		}
+		
+		long start = System.nanoTime();
+		Vector facingNormal = shapeNormal.normalise();
+		if (facingNormal.dot(rayDirection) > 0) {
+			facingNormal = facingNormal.negate();
+		}
+		double visibility;
+		if (occlusionCache != null) {
+			visibility = occlusionCache.visibility(pointOfIntersection, facingNormal, tree, ThreadLocalRandom.current());
+		} else {
+			visibility = ambientOcclusion.visibility(pointOfIntersection, facingNormal, tree, ThreadLocalRandom.current());
+		}
+		RenderStats.occlusionTime.add(System.nanoTime() - start);
+		return visibility;
+	}
+	
+	/**
+	 * Calculates the diffuse and specular light from one light at a point. Lights too far away 
+	 * to make a visible difference, or behind the surface, are skipped before any shadow ray 
+	 * is fired. Shadow rays stop at the first shape found between the point and the light.
+	 * 
+	 * @param light - The light to shade with
+	 * @param pointOfIntersection - The point being shaded
+	 * @param shadowOrigin - Point just off the surface to start the shadow ray from
+	 * @param shapeNormal - Unit normal of the shape at the point
+	 * @param diffuseReflection - The diffuse reflectivity of the surface
+	 * @param specularReflection - The specular reflectivity of the surface
+	 * @param tree - Acceleration structure used for shadow rays
+	 * @return the diffuse and specular value, 0 if the light does not reach the point
+	 */
+	private double calculateLight(Light light, Point pointOfIntersection, Point shadowOrigin, Vector shapeNormal, 
+			double diffuseReflection, double specularReflection, KDTree tree) {
+		Vector lightDirection[] = new Vector[1];
+		double distance[] = new double[1];
+		double contribution = calculateUnshadowedLight(light, pointOfIntersection, shapeNormal, diffuseReflection, 
+				specularReflection, lightDirection, distance);
+		if (lightDirection[0] == null || !shadows) {
+			return contribution;
+		}
+		if (shadowMaps != null) {
+			return contribution * lookUpShadowMap(light, pointOfIntersection, shadowOrigin, shapeNormal, 
+					lightDirection[0], distance[0]);
+		}
+		if (findShadowOccluder(light, shadowOrigin, lightDirection[0], distance[0], tree) != null) {
+			return 0;
+		}
+		return contribution;
+	}
+	
+	/**
+	 * Calculates the diffuse and specular light from one light at a point as if nothing blocks 
+	 * it. Lights whose attenuated intensity is below the cutoff are skipped. The terms are only 
+	 * scaled by the attenuation when attenuated shading is on, in which case a skipped light 
+	 * never drops more than the cutoff; otherwise they use the full intensity of the light, as 
+	 * the original renderer did. Lights behind the surface are skipped too, where the Phong 
+	 * terms would otherwise subtract diffuse light and add a highlight on the unlit side.
+	 * 
+	 * @param light - The light to shade with
+	 * @param pointOfIntersection - The point being shaded
+	 * @param shapeNormal - Unit normal of the shape at the point
+	 * @param diffuseReflection - The diffuse reflectivity of the surface
+	 * @param specularReflection - The specular reflectivity of the surface
+	 * @param lightDirection - One element array to receive the unit direction to the light, left 
+	 * 		   null if the light is skipped
+	 * @param distance - One element array to receive the distance to the light
+	 * @return the diffuse and specular value, 0 if the light is skipped
+	 */
+	double calculateUnshadowedLight(Light light, Point pointOfIntersection, Vector shapeNormal, 
+			double diffuseReflection, double specularReflection, Vector lightDirection[], double distance[]) {
+		double shine = 400;
+		Vector toLight = new Vector(pointOfIntersection, light.getPosition());
+		distance[0] = Math.sqrt(toLight.dot(toLight));
+		if (light.getIntensity() * light.attenuation(distance[0]) < lightCutoff) {
+			RenderStats.skippedLightCounter.increment();
+			return 0;
+		}
+		
+		Vector direction = toLight.times(1.0 / distance[0]);
+		double facing = direction.dot(shapeNormal);
+		if (facing <= 0) {
+			RenderStats.skippedLightCounter.increment();
+			return 0;
+		}
+		
+		TileRecord record = TileRecord.current();
+		if (record != null) {
+			record.addLight(light);
+		}
+		
+		lightDirection[0] = direction;
+		double intensity = light.getIntensity();
+		if (attenuatedShading) {
+			intensity *= light.attenuation(distance[0]);
+		}
+		double diffuse = diffuseReflection * intensity * facing;
+		double specular = specularReflection * intensity * Math.pow(facing, shine);
+		return diffuse + specular;
+	}
+	
+	/**
+	 * Estimates how much of a light reaches a point from its shadow map. Shapes left out of 
+	 * the map are checked with a shadow ray.
+	 * 
+	 * @param light - The light to look up
+	 * @param pointOfIntersection - The point being shaded
+	 * @param shadowOrigin - Point just off the surface to start the shadow ray from
+	 * @param shapeNormal - Unit normal of the shape at the point, facing the light
+	 * @param lightDirection - Unit direction to the light
+	 * @param distance - Distance to the light
+	 * @return the fraction of the light reaching the point, from 0 to 1
+	 */
+	double lookUpShadowMap(Light light, Point pointOfIntersection, Point shadowOrigin, Vector shapeNormal, 
+			Vector lightDirection, double distance) {
+		RenderStats.shadowMapLookups.increment();
+		ShadowMap map = shadowMaps.get(light);
+		double visibility = map.visibility(pointOfIntersection, shapeNormal);
+		if (visibility == 0) {
+			return 0;
+		}
+		
+		Shape traced[] = map.getTracedShapes();
+		if (traced.length > 0) {
+			Ray shadowRay = new Ray(shadowOrigin, lightDirection);
+			for (Shape shape : traced) {
+				RenderStats.intersectionCheckCounter.increment();
+				if (shape.isIntersectedBy(shadowRay) != -1 && shadowRay.getDistance() < distance) {
+					return 0;
+				}
+			}
+		}
+		return visibility;
+	}
+	
+	/**
+	 * Checks if shadows are looked up in shadow maps for the frame being traced.
+	 * 
+	 * @return true if shadow maps are in use
+	 */
+	boolean usesShadowMaps() {
+		return shadowMaps != null;
+	}
+	
+	/**
+	 * Fires a shadow ray towards a light and finds any shape blocking it. The shape is recorded 
+	 * in the tile being traced.
+	 * 
+	 * @param light - The light the shadow ray points at
+	 * @param shadowOrigin - Point just off the surface to start the shadow ray from
+	 * @param lightDirection - Unit direction to the light
+	 * @param distance - Distance to the light
+	 * @param tree - Acceleration structure used for shadow rays
+	 * @return a shape blocking the light, or null if the light reaches the point
+	 */
+	Shape findShadowOccluder(Light light, Point shadowOrigin, Vector lightDirection, double distance, KDTree tree) {
+		RenderStats.shadowRayCounter.increment();
+		Ray shadowRay = new Ray(shadowOrigin, lightDirection);
+		Shape occluder;
+		if (occluderCache) {
+			occluder = OccluderCache.forThread().findOccluder(light, shadowRay, distance, tree);
+		} else {
+			occluder = tree.findOccluder(shadowRay, distance);
+		}
+		
+		TileRecord record = TileRecord.current();
+		if (occluder != null && record != null) {
+			record.addShape(occluder);
+		}
+		return occluder;
+	}
+	
+	/**
+	 * Turns the per-light cache of the last blocking shape on or off.
+	 * 
+	 * @param occluderCache - true to test the last blocker of each light before the tree
+	 */
+	public void setOccluderCache(boolean occluderCache) {
+		this.occluderCache = occluderCache;
+	}
+	
+	/**
+	 * Sets how many lights are sampled at each intersection point. When the scene has more 
+	 * lights than this, lights are picked from the light hierarchy so the cost of shading stays 
+	 * the same however many lights are added.
+	 * 
+	 * @param lightSamples - lights to sample per point, 0 to shade every light
+	 */
+	public void setLightSamples(int lightSamples) {
+		this.lightSamples = lightSamples;
+	}
+	
+	/**
+	 * Turns shadow rays on or off.
+	 * 
+	 * @param shadows - true to check every light for shapes blocking it
+	 */
+	public void setShadows(boolean shadows) {
+		this.shadows = shadows;
+	}
+	
+	/**
+	 * Sets the smallest attenuated intensity a light can reach a point with before it is 
+	 * skipped. Higher values cull more lights in large scenes. Unless attenuated shading is 
+	 * on, a skipped light could have added more than the cutoff, as shading uses the full 
+	 * intensity of each light.
+	 * 
+	 * @param lightCutoff - intensity below which a light is ignored
+	 */
+	public void setLightCutoff(double lightCutoff) {
+		this.lightCutoff = lightCutoff;
+	}
+	
+	/**
+	 * Turns attenuated shading on or off. When on, the diffuse and specular light of each light 
+	 * fall off with its attenuation over the distance to the point, which darkens scenes lit 
+	 * from far away. Off by default, so lights shade at their full intensity.
+	 * 
+	 * @param attenuatedShading - true to scale the light by its attenuation
+	 */
+	public void setAttenuatedShading(boolean attenuatedShading) {
+		this.attenuatedShading = attenuatedShading;
+	}
 
 	/**
 	 * Perform a colour map to bring colours back into range if necessary after applying
@@ -171,7 +1369,7 @@ public class Image {
 	 * @param phong - Phong value to apply
 	 * @return colour - pixel intensity at intersection point
 	 */
-	private Color performColourMap(Color colour, double phong) {
+	Color performColourMap(Color colour, double phong) {
 		double red = colour.getRed();
 		double green = colour.getGreen();
 		double blue = colour.getBlue();
@@ -202,7 +1400,7 @@ public class Image {
 	 * @param c4 - Fourth traced ray colour value
 	 * @return average - average of all colours in method
 	 */
-	private Color getPixelIntensity(Color c1, Color c2, Color c3, Color c4) {
+	Color getPixelIntensity(Color c1, Color c2, Color c3, Color c4) {
 		int red = (int) (c1.getRed() + c2.getRed() + c3.getRed() + c4.getRed()) / 4;
 		int green = (int) (c1.getGreen() + c2.getGreen() + c3.getGreen() + c4.getGreen()) / 4;
 		int blue = (int) (c1.getBlue() + c2.getBlue() + c3.getBlue() + c4.getBlue()) / 4;
@@ -238,22 +1436,4 @@ public class Image {
 		return aspectRatio;
 	}
 
-	/**
-	 * Calculates the screen coordinate in the world space coordinates to cast the ray
-	 * through the pixel.
-	 * 
-	 * @param x - Pixel x
-	 * @param y - Pixel y
-	 * @param imageWidth - Number of pixels in the width
-	 * @param imageHeight - Number of pixels in the height
-	 * @param xOffset - Offset for x to cast the ray through the pixel
-	 * @param yOffset - Offset for y to cast the ray through the pixel 
-	 * @return a point in world space coordinates
-	 */
-	private Point findPointOnImage(double x, double y, double imageWidth, double imageHeight, double xOffset, double yOffset) {
-		double xPos = ((((2.0 * (x + xOffset)) / imageWidth) - 1.0) * aspectRatio) * -1.0;
-		double yPos = (((-2.0 * (y + yOffset)) / imageHeight) + 1.0); // Reversed formula to compensate for parallel projection
-																  // viewing
-		return new Point(xPos, yPos, -1);
-	}
 }
@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 /**
  * Constructs a 3D tree using shapes and splits each axis in a rotational manner.
  * 
@@ -8,26 +9,65 @@ import java.util.ArrayList;
 public class KDTree {
 
 	private Node root;
+	private Shape unboundedShapes[];
 	private final int MAX_DEPTH;
+	private final boolean LAZY;
 	private final int MIN_SHAPES_SIZE = 40;
+	private final double TRAVERSAL_COST = 1.0;
+	private final double INTERSECTION_COST = 1.0;
+	private final double MAX_COST_INCREASE = 1.5;
+	private final int MAX_CULL_DEPTH = 8;
+	private static final Shape NO_SHAPES[] = new Shape[0];
+	// Nodes are only skipped when entered this fraction beyond the nearest hit, so hits that 
+	// tie with it after rounding are still found
+	private final double PRUNE_TOLERANCE = 1e-9;
+	private double builtCostPerShape;
 	int numShapes = 0;
 	
 	/**
 	 * Construct a balanced KD tree using a maximum depth, initial bounding box, and the entire 
-	 * list of shapes within the scene.
+	 * list of shapes within the scene. Infinite shapes, such as planes, are kept out of the tree 
+	 * and checked separately.
 	 * 
 	 * @param shapes - all shapes within the scene
 	 * @param maxDepth - the maximum depth of the tree to be constructed
 	 * @param volume - the initial bounding box of the tree
 	 */
 	public KDTree(Shape shapes[], int maxDepth, Box volume) {
+		this(shapes, maxDepth, volume, false);
+	}
+	
+	/**
+	 * Construct a KD tree that can either be built in full straight away, or lazily. A lazy tree 
+	 * only splits a node when the first ray reaches it, so parts of the scene that are never 
+	 * seen are never sorted.
+	 * 
+	 * @param shapes - all shapes within the scene
+	 * @param maxDepth - the maximum depth of the tree to be constructed
+	 * @param volume - the initial bounding box of the tree
+	 * @param lazy - true to split nodes on demand while tracing
+	 */
+	public KDTree(Shape shapes[], int maxDepth, Box volume, boolean lazy) {
 		MAX_DEPTH = maxDepth;
-		root = constructTree(shapes, 0, volume);
+		LAZY = lazy;
+		ArrayList<Shape> bounded = new ArrayList<Shape>();
+		ArrayList<Shape> unbounded = new ArrayList<Shape>();
+		for (int i = 0; i < shapes.length; i++) {
+			if (shapes[i].isBounded()) {
+				bounded.add(shapes[i]);
+			} else {
+				unbounded.add(shapes[i]);
+			}
+		}
+		unboundedShapes = unbounded.toArray(new Shape[unbounded.size()]);
+		numShapes = bounded.size();
+		root = constructTree(bounded.toArray(new Shape[bounded.size()]), 0, volume);
+		builtCostPerShape = costPerShape();
 	}
 	
 	/**
 	 * Recursively constructs the tree sorting shapes based on midpoint on a rotating axis for
-	 * each depth of the tree. 
+	 * each depth of the tree. In a lazy tree the node is only marked to be split later.
 	 * 
 	 * @param shapes - the shapes to be assigned to the current node
 	 * @param depth - the current depth of the tree
@@ -35,12 +75,48 @@ public class KDTree {
 	 * @return the root of the tree
 	 */
 	private Node constructTree(Shape shapes[], int depth, Box volume) {
-		Node currentNode, left, right;
-		currentNode = new Node(volume, shapes);
+		Node currentNode = new Node(volume, shapes, depth);
+		currentNode.setBounds(fitBounds(shapes, volume));
 		if (depth == MAX_DEPTH || shapes.length <= MIN_SHAPES_SIZE) {
 			return currentNode;
 		} 
-			
+		
+		if (LAZY) {
+			currentNode.setSplitPending(true);
+		} else {
+			split(currentNode);
+		}
+		return currentNode;
+	}
+	
+	/**
+	 * Splits a lazy node the first time a ray reaches it. Only one thread splits the node, 
+	 * any others wait and then see the finished children.
+	 * 
+	 * @param node - the node waiting to be split
+	 */
+	private void expand(Node node) {
+		synchronized (node) {
+			if (node.isSplitPending()) {
+				split(node);
+				// Children are published to other threads by clearing the volatile flag
+				node.setSplitPending(false);
+			}
+		}
+	}
+	
+	/**
+	 * Splits a node at the median of its shapes on the axis for its depth, and constructs the 
+	 * left and right children.
+	 * 
+	 * @param currentNode - the node to split
+	 */
+	private void split(Node currentNode) {
+		Node left, right;
+		Shape shapes[] = currentNode.getShapes();
+		Box volume = currentNode.getVolume();
+		int depth = currentNode.getDepth();
+		
 		int axis = depth % 3;
 		Shape sortedShapes[] = quickSort(shapes, 0, shapes.length - 1, axis);
 		int median = (int) (sortedShapes.length - 1) / 2;
@@ -118,7 +194,384 @@ public class KDTree {
 		
 		right = constructTree(rightShapes, depth + 1, rightVolume);
 		currentNode.setRight(right);
-		return currentNode;
+		// Only leaves keep their shapes, so an update only has to change the leaves it reaches
+		currentNode.setShapes(NO_SHAPES);
+	}
+	
+	/**
+	 * Adds a shape to an existing tree without rebuilding it. The shape is added to every leaf 
+	 * it overlaps and the bounds of the nodes above are grown around it, and any leaf that grows 
+	 * too large is split again on its own. If the shape is outside the tree, the volumes are 
+	 * grown to fit it while keeping every split plane.
+	 * 
+	 * @param shape - the shape to add
+	 * @return true if the shape was added
+	 * 		   false if the tree is empty and a full rebuild is needed
+	 */
+	public boolean insert(Shape shape) {
+		if (!shape.isBounded()) {
+			unboundedShapes = append(unboundedShapes, shape);
+			return true;
+		}
+		
+		Box volume = root.getVolume();
+		if (volume == null) {
+			return false;
+		}
+		if (!contains(volume, shape)) {
+			Point min = volume.getMin();
+			Point max = volume.getMax();
+			resize(root, new Point(Math.min(min.getX(), shape.getMinX()), Math.min(min.getY(), shape.getMinY()), Math.min(min.getZ(), shape.getMinZ())),
+						 new Point(Math.max(max.getX(), shape.getMaxX()), Math.max(max.getY(), shape.getMaxY()), Math.max(max.getZ(), shape.getMaxZ())));
+		}
+		insertInto(root, shape);
+		numShapes++;
+		return true;
+	}
+	
+	/**
+	 * Removes a shape from every leaf it overlaps. Must be called before the shape is moved, 
+	 * while its bounds still match the nodes it was added to.
+	 * 
+	 * @param shape - the shape to remove
+	 * @return true if the shape was in the tree
+	 * 		   false if it was not found
+	 */
+	public boolean remove(Shape shape) {
+		if (!shape.isBounded()) {
+			Shape remaining[] = without(unboundedShapes, shape);
+			boolean found = remaining != unboundedShapes;
+			unboundedShapes = remaining;
+			return found;
+		}
+		if (root.getVolume() != null && removeFrom(root, shape)) {
+			numShapes--;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if the tree has been updated enough that traversal would be noticeably slower than 
+	 * in a freshly built tree. Compares the estimated cost per shape to the cost when built.
+	 * 
+	 * @return true if the tree should be rebuilt
+	 * 		   false if the updated tree is still good enough
+	 */
+	public boolean needsRebuild() {
+		return costPerShape() > builtCostPerShape * MAX_COST_INCREASE;
+	}
+	
+	/**
+	 * Estimates the cost of tracing a ray through the tree using the surface area heuristic. 
+	 * Each node is weighted by the chance of a ray hitting it, relative to the root.
+	 * 
+	 * @return the estimated cost divided by the number of shapes
+	 */
+	public double costPerShape() {
+		Box volume = root.getVolume();
+		if (volume == null || numShapes <= 0 || surfaceArea(volume) <= 0) {
+			return 0;
+		}
+		return cost(root, surfaceArea(volume)) / numShapes;
+	}
+	
+	/**
+	 * Recursively adds a shape to all leaves overlapping its bounds, growing the bounds of each 
+	 * node on the way down to take in the shape.
+	 * 
+	 * @param node - the current node
+	 * @param shape - the shape to add
+	 */
+	private void insertInto(Node node, Shape shape) {
+		if (!overlaps(node.getVolume(), shape)) {
+			return;
+		}
+		
+		node.setBounds(grow(node.getBounds(), shape, node.getVolume()));
+		if (node.isLeaf()) {
+			node.setShapes(append(node.getShapes(), shape));
+			// Split the leaf again if it has grown too large
+			if (node.getShapes().length > 2 * MIN_SHAPES_SIZE && node.getDepth() < MAX_DEPTH) {
+				if (LAZY) {
+					node.setSplitPending(true);
+				} else {
+					split(node);
+				}
+			}
+			return;
+		}
+		insertInto(node.getLeft(), shape);
+		insertInto(node.getRight(), shape);
+	}
+	
+	/**
+	 * Recursively removes a shape from all leaves overlapping its bounds. Only the leaves that 
+	 * held the shape are fitted again, and the nodes above them are refitted from the bounds of 
+	 * their children. Two leaves left with few enough shapes are merged back into their parent.
+	 * 
+	 * @param node - the current node
+	 * @param shape - the shape to remove
+	 * @return true if a leaf below the node held the shape
+	 * 		   false otherwise
+	 */
+	private boolean removeFrom(Node node, Shape shape) {
+		if (!overlaps(node.getVolume(), shape)) {
+			return false;
+		}
+		
+		if (node.isLeaf()) {
+			Shape remaining[] = without(node.getShapes(), shape);
+			if (remaining == node.getShapes()) {
+				return false;
+			}
+			node.setShapes(remaining);
+			node.setBounds(fitBounds(remaining, node.getVolume()));
+			return true;
+		}
+		// Both sides are searched, as a shape across the split plane is in a leaf on each
+		boolean found = removeFrom(node.getLeft(), shape) | removeFrom(node.getRight(), shape);
+		if (!found) {
+			return false;
+		}
+		
+		Node left = node.getLeft();
+		Node right = node.getRight();
+		node.setBounds(union(left.getBounds(), right.getBounds()));
+		if (left.isLeaf() && right.isLeaf() && left.getShapes().length <= MIN_SHAPES_SIZE 
+				&& right.getShapes().length <= MIN_SHAPES_SIZE) {
+			Shape merged[] = merge(left.getShapes(), right.getShapes());
+			if (merged.length <= MIN_SHAPES_SIZE) {
+				node.setShapes(merged);
+				node.setLeft(null);
+				node.setRight(null);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Recursively changes the volume of a node and its children. Each child is given the new 
+	 * volume of its parent cut at the split plane it was built with.
+	 * 
+	 * @param node - the current node
+	 * @param min - new minimum point of the node
+	 * @param max - new maximum point of the node
+	 */
+	private void resize(Node node, Point min, Point max) {
+		if (!node.isLeaf()) {
+			int axis = node.getDepth() % 3;
+			Point split = node.getLeft().getVolume().getMax();
+			Point leftMax = null, rightMin = null;
+			if (axis == 0) {
+				leftMax = new Point(split.getX(), max.getY(), max.getZ());
+				rightMin = new Point(split.getX(), min.getY(), min.getZ());
+			} else if (axis == 1) {
+				leftMax = new Point(max.getX(), split.getY(), max.getZ());
+				rightMin = new Point(min.getX(), split.getY(), min.getZ());
+			} else if (axis == 2) {
+				leftMax = new Point(max.getX(), max.getY(), split.getZ());
+				rightMin = new Point(min.getX(), min.getY(), split.getZ());
+			}
+			resize(node.getLeft(), min, leftMax);
+			resize(node.getRight(), rightMin, max);
+		}
+		node.getVolume().setMin(min);
+		node.getVolume().setMax(max);
+	}
+	
+	/**
+	 * Recursively sums the cost of each node, weighted by the surface area of its bounds.
+	 * 
+	 * @param node - the current node
+	 * @param rootArea - surface area of the root volume
+	 * @return the estimated cost of the subtree
+	 */
+	private double cost(Node node, double rootArea) {
+		if (node.getBounds() == null) {
+			return 0;
+		}
+		double probability = surfaceArea(node.getBounds()) / rootArea;
+		if (node.isLeaf()) {
+			return probability * node.getShapes().length * INTERSECTION_COST;
+		}
+		return probability * TRAVERSAL_COST + cost(node.getLeft(), rootArea) + cost(node.getRight(), rootArea);
+	}
+	
+	/**
+	 * Finds the smallest box around a list of shapes, clipped to the volume of their node. 
+	 * Rays that pass through the empty space around the shapes can then be rejected early.
+	 * 
+	 * @param shapes - the shapes within the node
+	 * @param volume - the volume of the node
+	 * @return the tight bounds, or null if there are no shapes
+	 */
+	private Box fitBounds(Shape shapes[], Box volume) {
+		if (shapes.length == 0 || volume == null) {
+			return null;
+		}
+		Box around = Box.around(shapes);
+		Point min = volume.getMin();
+		Point max = volume.getMax();
+		Point aroundMin = around.getMin();
+		Point aroundMax = around.getMax();
+		return new Box(new Point(Math.max(min.getX(), aroundMin.getX()), Math.max(min.getY(), aroundMin.getY()), Math.max(min.getZ(), aroundMin.getZ())),
+					   new Point(Math.min(max.getX(), aroundMax.getX()), Math.min(max.getY(), aroundMax.getY()), Math.min(max.getZ(), aroundMax.getZ())));
+	}
+	
+	/**
+	 * Grows the bounds of a node to take in a shape, clipped to the volume of the node.
+	 * 
+	 * @param bounds - the current bounds, or null if the node is empty
+	 * @param shape - the shape being added
+	 * @param volume - the volume of the node
+	 * @return the grown bounds
+	 */
+	private Box grow(Box bounds, Shape shape, Box volume) {
+		Point min = volume.getMin();
+		Point max = volume.getMax();
+		double minX = Math.max(min.getX(), shape.getMinX());
+		double minY = Math.max(min.getY(), shape.getMinY());
+		double minZ = Math.max(min.getZ(), shape.getMinZ());
+		double maxX = Math.min(max.getX(), shape.getMaxX());
+		double maxY = Math.min(max.getY(), shape.getMaxY());
+		double maxZ = Math.min(max.getZ(), shape.getMaxZ());
+		if (bounds != null) {
+			Point boundsMin = bounds.getMin();
+			Point boundsMax = bounds.getMax();
+			minX = Math.min(minX, boundsMin.getX());
+			minY = Math.min(minY, boundsMin.getY());
+			minZ = Math.min(minZ, boundsMin.getZ());
+			maxX = Math.max(maxX, boundsMax.getX());
+			maxY = Math.max(maxY, boundsMax.getY());
+			maxZ = Math.max(maxZ, boundsMax.getZ());
+		}
+		return new Box(new Point(minX, minY, minZ), new Point(maxX, maxY, maxZ));
+	}
+	
+	/**
+	 * Finds the smallest box around the bounds of two children.
+	 * 
+	 * @param a - bounds of one child, or null if it is empty
+	 * @param b - bounds of the other child, or null if it is empty
+	 * @return the box around both, or null if both are empty
+	 */
+	private Box union(Box a, Box b) {
+		if (a == null || b == null) {
+			return a == null ? b : a;
+		}
+		return new Box(new Point(Math.min(a.getMin().getX(), b.getMin().getX()), Math.min(a.getMin().getY(), b.getMin().getY()), Math.min(a.getMin().getZ(), b.getMin().getZ())),
+					   new Point(Math.max(a.getMax().getX(), b.getMax().getX()), Math.max(a.getMax().getY(), b.getMax().getY()), Math.max(a.getMax().getZ(), b.getMax().getZ())));
+	}
+	
+	/**
+	 * Calculates the surface area of a bounding box.
+	 * 
+	 * @param volume - the bounding box
+	 * @return the surface area
+	 */
+	private double surfaceArea(Box volume) {
+		double x = volume.getMax().getX() - volume.getMin().getX();
+		double y = volume.getMax().getY() - volume.getMin().getY();
+		double z = volume.getMax().getZ() - volume.getMin().getZ();
+		return 2 * (x * y + y * z + x * z);
+	}
+	
+	/**
+	 * Checks if the bounds of a shape overlap a bounding box.
+	 * 
+	 * @param volume - the bounding box
+	 * @param shape - the shape to check
+	 * @return true if they overlap
+	 * 		   false otherwise
+	 */
+	private boolean overlaps(Box volume, Shape shape) {
+		Point min = volume.getMin();
+		Point max = volume.getMax();
+		return shape.getMinX() <= max.getX() && shape.getMaxX() >= min.getX()
+			&& shape.getMinY() <= max.getY() && shape.getMaxY() >= min.getY()
+			&& shape.getMinZ() <= max.getZ() && shape.getMaxZ() >= min.getZ();
+	}
+	
+	/**
+	 * Checks if the bounds of a shape are completely inside a bounding box.
+	 * 
+	 * @param volume - the bounding box
+	 * @param shape - the shape to check
+	 * @return true if the shape is inside
+	 * 		   false otherwise
+	 */
+	private boolean contains(Box volume, Shape shape) {
+		Point min = volume.getMin();
+		Point max = volume.getMax();
+		return shape.getMinX() >= min.getX() && shape.getMaxX() <= max.getX()
+			&& shape.getMinY() >= min.getY() && shape.getMaxY() <= max.getY()
+			&& shape.getMinZ() >= min.getZ() && shape.getMaxZ() <= max.getZ();
+	}
+	
+	/**
+	 * Creates a copy of a shapes list with one more shape on the end.
+	 * 
+	 * @param shapes - the current list
+	 * @param shape - the shape to add
+	 * @return the new list
+	 */
+	private Shape[] append(Shape shapes[], Shape shape) {
+		Shape result[] = new Shape[shapes.length + 1];
+		System.arraycopy(shapes, 0, result, 0, shapes.length);
+		result[shapes.length] = shape;
+		return result;
+	}
+	
+	/**
+	 * Creates a copy of a shapes list with a shape taken out.
+	 * 
+	 * @param shapes - the current list
+	 * @param shape - the shape to remove
+	 * @return the new list, or the same list if the shape was not in it
+	 */
+	private Shape[] without(Shape shapes[], Shape shape) {
+		for (int i = 0; i < shapes.length; i++) {
+			if (shapes[i] == shape) {
+				Shape result[] = new Shape[shapes.length - 1];
+				System.arraycopy(shapes, 0, result, 0, i);
+				System.arraycopy(shapes, i + 1, result, i, shapes.length - i - 1);
+				return result;
+			}
+		}
+		return shapes;
+	}
+	
+	/**
+	 * Joins the shapes of two leaves being merged, keeping one copy of shapes that were in both.
+	 * 
+	 * @param left - shapes of the left leaf
+	 * @param right - shapes of the right leaf
+	 * @return the shapes of both leaves
+	 */
+	private Shape[] merge(Shape left[], Shape right[]) {
+		Shape result[] = Arrays.copyOf(left, left.length + right.length);
+		int count = left.length;
+		for (Shape shape : right) {
+			boolean shared = false;
+			for (int i = 0; i < left.length && !shared; i++) {
+				shared = left[i] == shape;
+			}
+			if (!shared) {
+				result[count++] = shape;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+	
+	/**
+	 * Checks if the tree splits its nodes on demand.
+	 * 
+	 * @return true if the tree is built lazily
+	 * 		   false if it was built in full
+	 */
+	public boolean isLazy() {
+		return LAZY;
 	}
 	
 	/**
@@ -130,46 +583,368 @@ public class KDTree {
 		return root;
 	}
 	
+	/**
+	 * Finds the nearest intersection with any shape in the tree or any of the infinite shapes 
+	 * kept outside it. Leaves the distance to the returned shape on the ray.
+	 * 
+	 * @param ray - the casted ray to check for intersections
+	 * @return the shape at the point of intersection
+	 */
+	public Shape findShapeWith(Ray ray) {
+		Shape closest = findShapeWith(root, ray);
+		double closestDistance = closest != null ? ray.getDistance() : Double.MAX_VALUE;
+		return findUnboundedShapeWith(ray, closest, closestDistance);
+	}
+	
+	/**
+	 * Finds the nearest intersection with any shape below a set of entry nodes, or any of the 
+	 * infinite shapes kept outside the tree. Entry nodes found by cull for the rays of a tile 
+	 * give the same result as starting from the root. Leaves the distance to the returned 
+	 * shape on the ray.
+	 * 
+	 * @param ray - the casted ray to check for intersections
+	 * @param entries - the nodes to start traversing from, in tree order
+	 * @return the shape at the point of intersection
+	 */
+	public Shape findShapeWith(Ray ray, Node entries[]) {
+		return findShapeWith(ray, entries, null);
+	}
+	
+	/**
+	 * Finds the nearest intersection from the root, checking a likely shape first.
+	 * 
+	 * @param ray - the casted ray to check for intersections
+	 * @param hint - a shape the ray is likely to hit, or null
+	 * @return the shape at the point of intersection
+	 */
+	public Shape findShapeWith(Ray ray, Shape hint) {
+		return findShapeWith(ray, new Node[] {root}, hint);
+	}
+	
+	/**
+	 * Finds the nearest intersection, checking a likely shape first. If the ray hits it, 
+	 * nodes further away than the hit are skipped. The likely shape is not marked as checked, 
+	 * so the nearest shape and its distance are the same as without it.
+	 * 
+	 * @param ray - the casted ray to check for intersections
+	 * @param entries - the nodes to start traversing from, in tree order
+	 * @param hint - a shape the ray is likely to hit, such as the last shape hit by a ray next 
+	 * 		   to it, or null
+	 * @return the shape at the point of intersection
+	 */
+	public Shape findShapeWith(Ray ray, Node entries[], Shape hint) {
+		double maxDistance = Double.MAX_VALUE;
+		if (hint != null) {
+			RenderStats.intersectionCheckCounter.increment();
+			if (hint.isIntersectedBy(ray) != -1) {
+				maxDistance = ray.getDistance();
+			}
+		}
+		
+		Mailbox mailbox = Mailbox.forThread();
+		int previous = mailbox.begin();
+		Shape closest = null;
+		double closestDistance = Double.MAX_VALUE;
+		for (Node entry : entries) {
+			Shape shape = findShapeWith(entry, ray, mailbox, Math.min(maxDistance, closestDistance));
+			if (shape != null && isNearer(shape, ray.getDistance(), closest, closestDistance)) {
+				closest = shape;
+				closestDistance = ray.getDistance();
+			}
+		}
+		mailbox.end(previous);
+		closest = findUnboundedShapeWith(ray, closest, closestDistance);
+		
+		if (hint != null) {
+			if (closest == hint) {
+				RenderStats.primaryHintHits.increment();
+			} else {
+				RenderStats.primaryHintMisses.increment();
+			}
+		}
+		return closest;
+	}
+	
+	/**
+	 * Checks the infinite shapes kept outside the tree for an intersection nearer than the 
+	 * one found within it.
+	 * 
+	 * @param ray - the casted ray to check for intersections
+	 * @param closest - the nearest shape found in the tree, or null
+	 * @param closestDistance - the distance to the nearest shape found in the tree
+	 * @return the nearest shape
+	 */
+	private Shape findUnboundedShapeWith(Ray ray, Shape closest, double closestDistance) {
+		for (int i = 0; i < unboundedShapes.length; i++) {
+			RenderStats.intersectionCheckCounter.increment();
+			if (unboundedShapes[i].isIntersectedBy(ray) != -1 && isNearer(unboundedShapes[i], ray.getDistance(), closest, closestDistance)) {
+				closest = unboundedShapes[i];
+				closestDistance = ray.getDistance();
+			}
+		}
+		
+		if (closest != null) {
+			ray.setDistance(closestDistance);
+		}
+		return closest;
+	}
+	
+	/**
+	 * Checks if a hit is nearer than the nearest found so far. Hits at exactly the same 
+	 * distance, such as on an edge shared by two triangles, go to the shape with the lower id, 
+	 * so the shape found does not depend on the order nodes are visited in.
+	 * 
+	 * @param shape - the shape hit
+	 * @param distance - distance to the hit
+	 * @param closest - the nearest shape found so far, or null
+	 * @param closestDistance - distance to the nearest shape found so far
+	 * @return true if the hit should replace the nearest found so far
+	 */
+	static boolean isNearer(Shape shape, double distance, Shape closest, double closestDistance) {
+		if (closest == null || distance < closestDistance) {
+			return true;
+		}
+		return distance == closestDistance && shape.getId() < closest.getId();
+	}
+	
+	/**
+	 * Checks if there are infinite shapes kept outside the tree, which every ray has to be 
+	 * checked against.
+	 * 
+	 * @return true if the scene has infinite shapes
+	 */
+	public boolean hasUnboundedShapes() {
+		return unboundedShapes.length > 0;
+	}
+	
+	/**
+	 * Finds the nodes a frustum, such as the rays of one tile of the image, can reach. Nodes 
+	 * completely inside the frustum are kept whole, nodes partly inside are replaced by their 
+	 * children down to a limited depth, and nodes outside are dropped.
+	 * 
+	 * @param planes - the planes of the frustum as normal x, y, z and offset, points inside 
+	 * 		   have a positive distance from every plane
+	 * @return the nodes to start traversing from, in tree order, empty if the frustum misses 
+	 * 		   every shape in the tree
+	 */
+	public Node[] cull(double planes[][]) {
+		ArrayList<Node> entries = new ArrayList<>();
+		cull(root, planes, 0, entries);
+		return entries.toArray(new Node[entries.size()]);
+	}
+	
+	/**
+	 * Recursively finds the nodes below a node that a frustum can reach.
+	 * 
+	 * @param node - the current node
+	 * @param planes - the planes of the frustum
+	 * @param depth - depth of the node below the root
+	 * @param entries - list to add the reached nodes to
+	 */
+	private void cull(Node node, double planes[][], int depth, ArrayList<Node> entries) {
+		Box bounds = node.getBounds();
+		if (bounds == null) {
+			return;
+		}
+		
+		boolean inside = true;
+		for (double plane[] : planes) {
+			int side = classify(bounds, plane);
+			if (side < 0) {
+				return;
+			}
+			inside &= side > 0;
+		}
+		
+		if (!inside && depth < MAX_CULL_DEPTH) {
+			if (node.isSplitPending()) {
+				expand(node);
+			}
+			if (!node.isLeaf()) {
+				cull(node.getLeft(), planes, depth + 1, entries);
+				cull(node.getRight(), planes, depth + 1, entries);
+				return;
+			}
+		}
+		entries.add(node);
+	}
+	
+	/**
+	 * Finds which side of a plane a box is on, using the corners furthest along and against 
+	 * the normal.
+	 * 
+	 * @param box - the box to check
+	 * @param plane - normal x, y, z and offset of the plane
+	 * @return 1 if the box is completely on the positive side, -1 if completely on the 
+	 * 		   negative side, 0 if the plane cuts through it
+	 */
+	private static int classify(Box box, double plane[]) {
+		Point min = box.getMin();
+		Point max = box.getMax();
+		double furthest = plane[3] 
+				+ plane[0] * (plane[0] >= 0 ? max.getX() : min.getX()) 
+				+ plane[1] * (plane[1] >= 0 ? max.getY() : min.getY()) 
+				+ plane[2] * (plane[2] >= 0 ? max.getZ() : min.getZ());
+		if (furthest < 0) {
+			return -1;
+		}
+		double nearest = plane[3] 
+				+ plane[0] * (plane[0] >= 0 ? min.getX() : max.getX()) 
+				+ plane[1] * (plane[1] >= 0 ? min.getY() : max.getY()) 
+				+ plane[2] * (plane[2] >= 0 ? min.getZ() : max.getZ());
+		return nearest >= 0 ? 1 : 0;
+	}
+	
+	/**
+	 * Checks if any shape lies on the ray before a given distance, such as between a point and 
+	 * a light. Stops at the first shape found rather than searching for the nearest.
+	 * 
+	 * @param ray - the shadow ray to check
+	 * @param maxDistance - distance along the ray to stop checking at
+	 * @return true if a shape blocks the ray
+	 * 		   false otherwise
+	 */
+	public boolean isOccluded(Ray ray, double maxDistance) {
+		return findOccluder(ray, maxDistance) != null;
+	}
+	
+	/**
+	 * Finds any shape that lies on the ray before a given distance. Stops at the first shape 
+	 * found rather than searching for the nearest.
+	 * 
+	 * @param ray - the shadow ray to check
+	 * @param maxDistance - distance along the ray to stop checking at
+	 * @return the first shape found blocking the ray, or null if nothing blocks it
+	 */
+	public Shape findOccluder(Ray ray, double maxDistance) {
+		for (int i = 0; i < unboundedShapes.length; i++) {
+			RenderStats.intersectionCheckCounter.increment();
+			if (unboundedShapes[i].isIntersectedBy(ray) != -1 && ray.getDistance() < maxDistance) {
+				return unboundedShapes[i];
+			}
+		}
+		
+		Mailbox mailbox = Mailbox.forThread();
+		int previous = mailbox.begin();
+		Shape occluder = findOccluder(root, ray, maxDistance, mailbox);
+		mailbox.end(previous);
+		return occluder;
+	}
+	
+	/**
+	 * Recursively checks the nodes along a shadow ray for any shape before the given distance.
+	 * 
+	 * @param node - the current node to check
+	 * @param ray - the shadow ray to check
+	 * @param maxDistance - distance along the ray to stop checking at
+	 * @param mailbox - shapes already checked by the ray
+	 * @return the first shape found blocking the ray, or null if nothing blocks it
+	 */
+	private Shape findOccluder(Node node, Ray ray, double maxDistance, Mailbox mailbox) {
+		Box bounds = node.getBounds();
+		RenderStats.intersectionCheckCounter.increment();
+		RenderStats.nodeVisitCounter.increment();
+		// Box test leaves the entry distance on the ray
+		if (bounds == null || !bounds.isIntersectedBy(ray) || ray.getDistance() > maxDistance) {
+			return null;
+		}
+		
+		if (node.isSplitPending()) {
+			expand(node);
+		}
+		
+		if (node.isLeaf()) {
+			return node.findOccluder(ray, maxDistance, mailbox);
+		}
+		Shape occluder = findOccluder(node.getLeft(), ray, maxDistance, mailbox);
+		if (occluder == null) {
+			occluder = findOccluder(node.getRight(), ray, maxDistance, mailbox);
+		}
+		return occluder;
+	}
+	
+	/**
+	 * Finds intersections with any shapes below a node of the tree. Each shape is checked at
+	 * most once, even if it is in several of the leaves the ray passes through.
+	 * 
+	 * @param node - the node to start traversing from
+	 * @param ray - the casted ray to check for intersections
+	 * @return the shape at the point of intersection 
+	 */
+	public Shape findShapeWith(Node node, Ray ray) {
+		Mailbox mailbox = Mailbox.forThread();
+		int previous = mailbox.begin();
+		Shape shape = findShapeWith(node, ray, mailbox, Double.MAX_VALUE);
+		mailbox.end(previous);
+		return shape;
+	}
+	
 	/**
 	 * Finds intersections with any shapes within the tree by traversing the necessary nodes.
-	 * Only checks for intersections if the node is a leaf within the tree.
+	 * Only checks for intersections if the node is a leaf within the tree. Nodes the ray 
+	 * enters beyond the nearest hit found so far are skipped, as nothing in them can be nearer.
 	 * 
 	 * @param node - the current node to check for intersections
 	 * @param ray - the casted ray to check for intersections
+	 * @param mailbox - shapes already checked by the ray
+	 * @param maxDistance - distance of the nearest hit found so far
 	 * @return the shape at the point of intersection 
 	 */
-	public Shape findShapeWith(Node node, Ray ray) {
-		Box volume = node.getVolume();
-		Image.intersectionCheckCounter += 1;
-		if (!volume.isIntersectedBy(ray)) {
+	private Shape findShapeWith(Node node, Ray ray, Mailbox mailbox, double maxDistance) {
+		// Test the tight bounds so rays through empty space are rejected early
+		Box bounds = node.getBounds();
+		RenderStats.intersectionCheckCounter.increment();
+		RenderStats.nodeVisitCounter.increment();
+		// Box test leaves the entry distance on the ray
+		if (bounds == null || !bounds.isIntersectedBy(ray) || ray.getDistance() > maxDistance * (1 + PRUNE_TOLERANCE)) {
 			return null;
 		} 
 		
+		if (node.isSplitPending()) {
+			expand(node);
+		}
+		
 		Shape left = null, right = null;
 		if (node.isLeaf()) {
-			return node.isIntersectedBy(ray);
+			return node.isIntersectedBy(ray, mailbox);
 		} 
 		
 		double leftDistance = 0;
 		double rightDistance = 0;
 
-		left = findShapeWith(node.getLeft(), ray);
-		leftDistance = ray.getDistance();
-		
-		right = findShapeWith(node.getRight(), ray);
-		rightDistance = ray.getDistance();
+		// Visit the child nearer the ray origin first, so the far child can be skipped if the 
+		// near child has a hit in front of it
+		int axis = node.getDepth() % 3;
+		Vector direction = ray.getDirection();
+		double towards = axis == 0 ? direction.getX() : axis == 1 ? direction.getY() : direction.getZ();
+		if (towards >= 0) {
+			left = findShapeWith(node.getLeft(), ray, mailbox, maxDistance);
+			leftDistance = ray.getDistance();
+			right = findShapeWith(node.getRight(), ray, mailbox, left != null ? Math.min(maxDistance, leftDistance) : maxDistance);
+			rightDistance = ray.getDistance();
+		} else {
+			right = findShapeWith(node.getRight(), ray, mailbox, maxDistance);
+			rightDistance = ray.getDistance();
+			left = findShapeWith(node.getLeft(), ray, mailbox, right != null ? Math.min(maxDistance, rightDistance) : maxDistance);
+			leftDistance = ray.getDistance();
+		}
 		
+		// Leave the distance of the chosen shape on the ray
 		if (left == null && right == null) {
 			return null;
 		} else if (left != null && right != null) {
-			if (leftDistance <= rightDistance) {
+			if (!isNearer(right, rightDistance, left, leftDistance)) {
+				ray.setDistance(leftDistance);
 				return left;
 			} else {
+				ray.setDistance(rightDistance);
 				return right;
 			}
 		} else if (left == null) {
+			ray.setDistance(rightDistance);
 			return right;
 		} else {
+			ray.setDistance(leftDistance);
 			return left;
 		}
 	}
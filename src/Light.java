@@ -52,6 +52,15 @@ public class Light {
 		return lightDirection;
 	}
 	
+	/**
+	 * Moves the light to a new position.
+	 * 
+	 * @param position - New origin of the light
+	 */
+	public void setPosition(Point position) {
+		this.position = position;
+	}
+	
 	/**
 	 * Applies an attenuation factor to the light striking scene objects.
 	 * 
@@ -0,0 +1,65 @@
+/**
+ * Holds the lights picked to shade a point and the divisor of each, in arrays that are only
+ * grown, so shading a point does not create any objects. With light sampling on the arrays
+ * only ever hold the number of samples, however many lights the scene has. Each thread
+ * reuses its own selection.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class LightSelection {
+
+	private static final ThreadLocal<LightSelection> SELECTIONS = new ThreadLocal<LightSelection>() {
+		@Override
+		protected LightSelection initialValue() {
+			return new LightSelection();
+		}
+	};
+
+	Light lights[] = new Light[0];
+	double divisors[] = new double[0];
+	// Receives the chance of picking each sampled light
+	final double probability[] = new double[1];
+
+	/**
+	 * Retrieves the selection belonging to the current thread.
+	 *
+	 * @return the selection of this thread
+	 */
+	public static LightSelection forThread() {
+		return SELECTIONS.get();
+	}
+
+	/**
+	 * Grows the selection if it cannot hold a number of lights.
+	 *
+	 * @param capacity - most lights about to be picked
+	 */
+	public void reserve(int capacity) {
+		if (lights.length < capacity) {
+			lights = new Light[capacity];
+			divisors = new double[capacity];
+		}
+	}
+
+	/**
+	 * Retrieves one of the lights picked.
+	 *
+	 * @param index - index of the light
+	 * @return the light
+	 */
+	public Light getLight(int index) {
+		return lights[index];
+	}
+
+	/**
+	 * Retrieves the divisor for the contribution of one of the lights picked.
+	 *
+	 * @param index - index of the light
+	 * @return the chance of picking the light times the number of samples, or 1 when every
+	 * 		   light is shaded
+	 */
+	public double getDivisor(int index) {
+		return divisors[index];
+	}
+}
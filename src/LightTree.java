@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.Random;
+/**
+ * A bounding volume hierarchy over the lights of a scene. Each cluster stores the box around
+ * its lights and their total intensity, so a light can be picked for a shading point in
+ * logarithmic time with a probability close to how much it is likely to contribute.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class LightTree {
+
+	private Cluster root;
+	private int lightCount;
+	private final double MIN_DISTANCE = 1e-3;
+
+	/**
+	 * A group of lights within the hierarchy. Leaves hold a single light.
+	 */
+	private static class Cluster {
+		double min[] = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double max[] = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		double intensity;
+		Cluster left;
+		Cluster right;
+		Light light;
+		Light representative;
+	}
+
+	/**
+	 * Constructs the hierarchy over a list of lights.
+	 *
+	 * @param lights - all lights within the scene
+	 */
+	public LightTree(ArrayList<Light> lights) {
+		lightCount = lights.size();
+		if (lightCount > 0) {
+			root = build(new ArrayList<Light>(lights));
+		}
+	}
+
+	/**
+	 * Retrieves the number of lights in the hierarchy.
+	 *
+	 * @return the number of lights
+	 */
+	public int getLightCount() {
+		return lightCount;
+	}
+
+	/**
+	 * Retrieves the total intensity of all lights in the hierarchy.
+	 *
+	 * @return the sum of all intensities
+	 */
+	public double getTotalIntensity() {
+		return root == null ? 0 : root.intensity;
+	}
+
+	/**
+	 * Picks one light for a shading point. Starting at the root, each step goes to a child with
+	 * probability proportional to its attenuated intensity, ignoring any cluster completely behind
+	 * the surface. The chance of the light being chosen is written to the probability array so
+	 * its contribution can be divided by it.
+	 *
+	 * @param point - the point being shaded
+	 * @param normal - unit normal of the surface at the point
+	 * @param random - random number generator for this thread
+	 * @param probability - one element array to receive the chance of picking the light
+	 * @return the chosen light, or null if no light is in front of the surface
+	 */
+	public Light sample(Point point, Vector normal, Random random, double probability[]) {
+		if (root == null) {
+			return null;
+		}
+
+		double px = point.getX(), py = point.getY(), pz = point.getZ();
+		double nx = normal.getX(), ny = normal.getY(), nz = normal.getZ();
+		Cluster cluster = root;
+		double pdf = 1;
+		while (cluster.light == null) {
+			double left = importance(cluster.left, px, py, pz, nx, ny, nz);
+			double right = importance(cluster.right, px, py, pz, nx, ny, nz);
+			if (left + right <= 0) {
+				return null;
+			}
+
+			double chanceLeft = left / (left + right);
+			if (random.nextDouble() < chanceLeft) {
+				cluster = cluster.left;
+				pdf *= chanceLeft;
+			} else {
+				cluster = cluster.right;
+				pdf *= 1 - chanceLeft;
+			}
+		}
+
+		probability[0] = pdf;
+		return cluster.light;
+	}
+
+	/**
+	 * Estimates how much a cluster could light a point, attenuating its total intensity by the
+	 * distance to its box. Clusters with every corner behind the surface cannot light it at all.
+	 *
+	 * @param cluster - the cluster to weigh
+	 * @param px - x of the point being shaded
+	 * @param py - y of the point being shaded
+	 * @param pz - z of the point being shaded
+	 * @param nx - x of the unit normal of the surface at the point
+	 * @param ny - y of the unit normal of the surface at the point
+	 * @param nz - z of the unit normal of the surface at the point
+	 * @return the importance of the cluster
+	 */
+	private double importance(Cluster cluster, double px, double py, double pz, double nx, double ny, double nz) {
+		double min[] = cluster.min;
+		double max[] = cluster.max;
+		boolean inFront = false;
+		for (int corner = 0; corner < 8 && !inFront; corner++) {
+			double x = (corner & 1) == 0 ? min[0] : max[0];
+			double y = (corner & 2) == 0 ? min[1] : max[1];
+			double z = (corner & 4) == 0 ? min[2] : max[2];
+			inFront = (x - px) * nx + (y - py) * ny + (z - pz) * nz > 0;
+		}
+		if (!inFront) {
+			return 0;
+		}
+
+		// Distance from the point to the nearest side of the box
+		double outsideX = Math.max(min[0] - px, Math.max(0, px - max[0]));
+		double outsideY = Math.max(min[1] - py, Math.max(0, py - max[1]));
+		double outsideZ = Math.max(min[2] - pz, Math.max(0, pz - max[2]));
+		double distanceSquared = outsideX * outsideX + outsideY * outsideY + outsideZ * outsideZ;
+		double distance = Math.max(Math.sqrt(distanceSquared), MIN_DISTANCE);
+		return cluster.intensity * cluster.representative.attenuation(distance);
+	}
+
+	/**
+	 * Recursively builds the hierarchy by splitting the lights at the median of the longest
+	 * axis of their box.
+	 *
+	 * @param lights - the lights within the cluster
+	 * @return the cluster containing all given lights
+	 */
+	private Cluster build(ArrayList<Light> lights) {
+		Cluster cluster = new Cluster();
+		for (Light light : lights) {
+			double position[] = {light.getPosition().getX(), light.getPosition().getY(), light.getPosition().getZ()};
+			for (int axis = 0; axis < 3; axis++) {
+				cluster.min[axis] = Math.min(cluster.min[axis], position[axis]);
+				cluster.max[axis] = Math.max(cluster.max[axis], position[axis]);
+			}
+			cluster.intensity += light.getIntensity();
+		}
+		// Any light of the cluster stands in for the attenuation of the group
+		cluster.representative = lights.get(0);
+
+		if (lights.size() == 1) {
+			cluster.light = lights.get(0);
+			return cluster;
+		}
+
+		int axis = 0;
+		for (int i = 1; i < 3; i++) {
+			if (cluster.max[i] - cluster.min[i] > cluster.max[axis] - cluster.min[axis]) {
+				axis = i;
+			}
+		}
+		final int splitAxis = axis;
+		lights.sort((a, b) -> Double.compare(coordinate(a, splitAxis), coordinate(b, splitAxis)));
+
+		int median = lights.size() / 2;
+		cluster.left = build(new ArrayList<Light>(lights.subList(0, median)));
+		cluster.right = build(new ArrayList<Light>(lights.subList(median, lights.size())));
+		return cluster;
+	}
+
+	/**
+	 * Retrieves one coordinate of the position of a light.
+	 *
+	 * @param light - the light
+	 * @param axis - 0 for x, 1 for y, 2 for z
+	 * @return the coordinate on the axis
+	 */
+	private static double coordinate(Light light, int axis) {
+		Point position = light.getPosition();
+		if (axis == 0) {
+			return position.getX();
+		} else if (axis == 1) {
+			return position.getY();
+		}
+		return position.getZ();
+	}
+}
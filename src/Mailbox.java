@@ -0,0 +1,82 @@
+import java.util.Arrays;
+/**
+ * Remembers which shapes have already been checked by the ray being traced, so a shape that
+ * straddles several leaves of the tree is only checked once per ray. Each thread keeps its own
+ * mailbox, stamped with the number of the ray it is currently tracing.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class Mailbox {
+
+	private static final ThreadLocal<Mailbox> MAILBOXES = new ThreadLocal<Mailbox>() {
+		@Override
+		protected Mailbox initialValue() {
+			return new Mailbox();
+		}
+	};
+
+	private int stamps[] = new int[0];
+	private int currentRay = 0;
+	private int nextRay = 1;
+
+	/**
+	 * Retrieves the mailbox belonging to the current thread.
+	 *
+	 * @return the mailbox of this thread
+	 */
+	public static Mailbox forThread() {
+		return MAILBOXES.get();
+	}
+
+	/**
+	 * Starts a new ray. Every shape is treated as unchecked until it is marked.
+	 *
+	 * @return the ray that was being traced before, to be passed back to end
+	 */
+	public int begin() {
+		if (stamps.length < Shape.getShapeCount()) {
+			int grown[] = new int[Math.max(Shape.getShapeCount(), stamps.length * 2)];
+			System.arraycopy(stamps, 0, grown, 0, stamps.length);
+			stamps = grown;
+		}
+		if (nextRay == Integer.MAX_VALUE) {
+			// Clear old stamps so ray numbers can start again without false matches
+			Arrays.fill(stamps, 0);
+			nextRay = 1;
+		}
+
+		int previous = currentRay;
+		currentRay = nextRay++;
+		return previous;
+	}
+
+	/**
+	 * Finishes the current ray and carries on with the ray that was being traced before it.
+	 * Needed when a ray is traced inside another, such as through a mesh instance.
+	 *
+	 * @param previous - the value returned by begin
+	 */
+	public void end(int previous) {
+		currentRay = previous;
+	}
+
+	/**
+	 * Marks a shape as checked by the current ray.
+	 *
+	 * @param shape - the shape about to be checked
+	 * @return true if the shape has not been checked by this ray yet
+	 * 		   false if it has and can be skipped
+	 */
+	public boolean mark(Shape shape) {
+		int id = shape.getId();
+		if (id >= stamps.length) {
+			return true;
+		}
+		if (stamps[id] == currentRay) {
+			return false;
+		}
+		stamps[id] = currentRay;
+		return true;
+	}
+}
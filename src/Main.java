@@ -1,5 +1,6 @@
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Main {
 
@@ -38,6 +39,9 @@ public class Main {
 		Color[] colours = {darkGreen};
 
 		scene.readSceneFile("Dragon_Points_VeryHigh.txt","Dragon_Tris_VeryHigh.txt",colours);
+		if (scene.getMeshWelder() != null) {
+			System.out.println(scene.getMeshWelder());
+		}
 	
 		// Normal Camera ----------------------------------------------------
 //		Point origin = new Point(0,0,5);
@@ -161,9 +165,39 @@ public class Main {
 
 		
 		System.out.println("Ray tracing scene now");
+		// Pass --progressive to write coarse previews while the full image is traced
+		if (Arrays.asList(args).contains("--progressive")) {
+			image.setProgressive(true);
+			image.setPreviewFile("preview.png");
+		}
 		image.rayTrace(camera, scene);
+		image.shutdown();
 		image.save();
-		System.out.println(Image.intersectionCheckCounter + " intersection checks");
+		System.out.println(RenderStats.intersectionCheckCounter + " intersection checks");
+		System.out.println(RenderStats.skippedIntersectionCounter + " repeated checks skipped");
+		System.out.println(RenderStats.nodeVisitCounter + " tree nodes visited");
+		System.out.println(RenderStats.shadowRayCounter + " shadow rays, " + RenderStats.skippedLightCounter + " lights skipped");
+		System.out.println(RenderStats.occluderCacheHits + " shadow rays blocked by the cached occluder, " 
+				+ RenderStats.occluderCacheMisses + " searched the tree");
+		System.out.println(RenderStats.reflectionRayCounter + " reflection rays, " + RenderStats.russianRouletteCounter 
+				+ " ended by Russian roulette, " + RenderStats.budgetExhaustedCounter + " over budget");
+		System.out.println(RenderStats.occlusionRayCounter + " ambient occlusion rays in " 
+				+ RenderStats.occlusionTime.sum() / 1000000 + "ms of thread time");
+		System.out.println(RenderStats.occlusionCacheHits + " ambient occlusion values reused, " 
+				+ RenderStats.occlusionCacheMisses + " computed");
+		System.out.println(RenderStats.raySortTime.sum() / 1000000 + "ms sorting reflection rays, " 
+				+ RenderStats.secondaryTraversalTime.sum() / 1000000 + "ms tracing them");
+		System.out.println(RenderStats.shadowMapLookups + " shadow map lookups, maps drawn in " 
+				+ RenderStats.shadowMapTime.sum() / 1000000 + "ms");
+		long hinted = RenderStats.primaryHintHits.sum() + RenderStats.primaryHintMisses.sum();
+		System.out.println(RenderStats.primaryHintHits + " of " + hinted + " camera rays hit the shape of an earlier ray of their pixel" 
+				+ (hinted > 0 ? " (" + RenderStats.primaryHintHits.sum() * 100 / hinted + "%)" : ""));
+
+		if (image.getFirstPreviewTime() >= 0) {
+			System.out.println("First preview after " + image.getFirstPreviewTime() / 1000.0 
+					+ "s, final frame after " + image.getFinalFrameTime() / 1000.0 + "s");
+		}
+		System.out.println("Traced at " + image.getFrameQuality());
 
 		long completionTime = System.currentTimeMillis();
 		long time = completionTime - startTime;
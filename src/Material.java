@@ -0,0 +1,76 @@
+import java.awt.Color;
+/**
+ * The colour and reflectivity of a surface. Materials cannot be changed once made, a shape 
+ * is given a different look by pointing its entry in the material table at a new material.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class Material {
+
+	private final Color colour;
+	private final double ambient;
+	private final double diffuse;
+	private final double specular;
+	
+	/**
+	 * Constructs a material.
+	 * 
+	 * @param colour - Colour of the surface
+	 * @param ambient - The ambient reflectivity of the surface
+	 * @param diffuse - The diffuse reflectivity of the surface
+	 * @param specular - The specular reflectivity of the surface
+	 */
+	public Material(Color colour, double ambient, double diffuse, double specular) {
+		this.colour = colour;
+		this.ambient = ambient;
+		this.diffuse = diffuse;
+		this.specular = specular;
+	}
+	
+	/**
+	 * Creates a copy of this material in a different colour.
+	 * 
+	 * @param colour - Colour of the new material
+	 * @return a material with the same reflectivity in the new colour
+	 */
+	public Material withColour(Color colour) {
+		return new Material(colour, ambient, diffuse, specular);
+	}
+	
+	/**
+	 * Retrieves the colour of the material.
+	 * 
+	 * @return the colour of the material
+	 */
+	public Color getColour() {
+		return colour;
+	}
+	
+	/**
+	 * Retrieves the ambient intensity of the material.
+	 * 
+	 * @return ambient intensity
+	 */
+	public double getAmbient() {
+		return ambient;
+	}
+	
+	/**
+	 * Retrieves the diffuse intensity of the material.
+	 * 
+	 * @return diffuse intensity
+	 */
+	public double getDiffuse() {
+		return diffuse;
+	}
+	
+	/**
+	 * Retrieves the specular intensity of the material.
+	 * 
+	 * @return specular intensity
+	 */
+	public double getSpecular() {
+		return specular;
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Holds every material in use, so shapes only need to store a small id instead of their own 
+ * colour and reflectivity. All triangles of a model share one entry, and changing that entry 
+ * changes the look of the whole model without touching its geometry or tree.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class MaterialTable {
+
+	private static final int INITIAL_SIZE = 16;
+	
+	private static volatile Material materials[] = new Material[INITIAL_SIZE];
+	private static int count = 0;
+	
+	/**
+	 * Adds a material to the table.
+	 * 
+	 * @param material - the material to add
+	 * @return the id of the new entry
+	 */
+	public static synchronized int add(Material material) {
+		Material table[] = materials;
+		if (count == table.length) {
+			Material grown[] = new Material[table.length * 2];
+			System.arraycopy(table, 0, grown, 0, table.length);
+			table = grown;
+		}
+		table[count] = material;
+		// Written back so threads reading the table see the new entry
+		materials = table;
+		return count++;
+	}
+	
+	/**
+	 * Retrieves a material by its id.
+	 * 
+	 * @param id - id of the entry
+	 * @return the material of the entry
+	 * @throws IllegalArgumentException if there is no entry with the id
+	 */
+	public static Material get(int id) {
+		Material table[] = materials;
+		if (id < 0 || id >= table.length || table[id] == null) {
+			throw new IllegalArgumentException("No material with id " + id);
+		}
+		return table[id];
+	}
+	
+	/**
+	 * Replaces the material of an entry, changing every shape that uses it at once.
+	 * 
+	 * @param id - id of the entry
+	 * @param material - the new material
+	 */
+	public static synchronized void set(int id, Material material) {
+		if (id < 0 || id >= count) {
+			throw new IllegalArgumentException("No material with id " + id);
+		}
+		Material table[] = materials;
+		table[id] = material;
+		materials = table;
+	}
+	
+	/**
+	 * Retrieves the number of materials in the table.
+	 * 
+	 * @return the number of entries
+	 */
+	public static synchronized int size() {
+		return count;
+	}
+}
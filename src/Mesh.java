@@ -0,0 +1,53 @@
+/**
+ * A model that can be placed in the scene many times. The triangles and their tree are built
+ * once in object space and shared by every instance of the mesh.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class Mesh {
+
+	private static final int MAX_TREE_DEPTH = 1000;
+
+	private Shape shapes[];
+	private Box volume;
+	private KDTree tree;
+
+	/**
+	 * Constructs a mesh and builds its tree in object space.
+	 *
+	 * @param shapes - The triangles of the model
+	 */
+	public Mesh(Shape shapes[]) {
+		this.shapes = shapes;
+		volume = Box.around(shapes);
+		tree = new KDTree(shapes, MAX_TREE_DEPTH, volume);
+	}
+
+	/**
+	 * Retrieves the shapes of the mesh in object space.
+	 *
+	 * @return all shapes in the mesh
+	 */
+	public Shape[] getShapes() {
+		return shapes;
+	}
+
+	/**
+	 * Retrieves the bounding box of the mesh in object space.
+	 *
+	 * @return the bounding box
+	 */
+	public Box getVolume() {
+		return volume;
+	}
+
+	/**
+	 * Retrieves the tree built over the mesh.
+	 *
+	 * @return the bottom level tree
+	 */
+	public KDTree getTree() {
+		return tree;
+	}
+}
@@ -0,0 +1,163 @@
+import java.awt.Color;
+/**
+ * Places a shared mesh in the scene with an affine transform. Rays are moved into the object
+ * space of the mesh and traced through its own tree, so any number of instances only cost the
+ * memory of the transform.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class MeshInstance extends Shape {
+
+	private Mesh mesh;
+	private Transform transform;
+	/**
+	 * Constructs an instance of a mesh at the given transform.
+	 *
+	 * @param mesh - The mesh to place in the scene
+	 * @param transform - Object to world space transform of the instance
+	 */
+	public MeshInstance(Mesh mesh, Transform transform) {
+		// Materials come from the shape hit within the mesh
+		super(-1);
+		this.mesh = mesh;
+		setTransform(transform);
+	}
+
+	/**
+	 * Moves the instance to a new transform. The tree of the mesh is left as it is, only the
+	 * bounds of the instance change.
+	 *
+	 * @param transform - New object to world space transform
+	 */
+	public void setTransform(Transform transform) {
+		this.transform = transform;
+		Box bounds = transform.applyTo(mesh.getVolume());
+		xMin = bounds.getMin().getX();
+		yMin = bounds.getMin().getY();
+		zMin = bounds.getMin().getZ();
+		xMax = bounds.getMax().getX();
+		yMax = bounds.getMax().getY();
+		zMax = bounds.getMax().getZ();
+		setMidPoint(new Point((xMin + xMax) / 2, (yMin + yMax) / 2, (zMin + zMax) / 2));
+	}
+
+	/**
+	 * Retrieves the transform of the instance.
+	 *
+	 * @return object to world space transform
+	 */
+	public Transform getTransform() {
+		return transform;
+	}
+
+	/**
+	 * Retrieves the mesh being instanced.
+	 *
+	 * @return the shared mesh
+	 */
+	public Mesh getMesh() {
+		return mesh;
+	}
+
+	@Override
+	public void translate(Vector offset) {
+		setTransform(Transform.translation(offset.getX(), offset.getY(), offset.getZ()).times(transform));
+	}
+
+	@Override
+	public double isIntersectedBy(Ray ray) {
+		// Direction is left unnormalised so t is the same in object and world space
+		Ray objectRay = new Ray(transform.applyInverseTo(ray.getOrigin()), transform.applyInverseTo(ray.getDirection()));
+		KDTree tree = mesh.getTree();
+		Shape shape = tree.findShapeWith(tree.getRoot(), objectRay);
+		if (shape == null) {
+			return -1;
+		}
+
+		// The hit is kept on the ray, as a later test of this instance by another ray or
+		// another query would replace anything kept on the instance
+		double t = objectRay.getDistance();
+		ray.recordHit(this, t, transform.applyToNormal(shape.getNormal(objectRay)), shape.getMaterialId(objectRay));
+		ray.setDistance(t);
+		return t;
+	}
+
+	@Override
+	public Vector getNormal(Ray ray) {
+		checkHit(ray);
+		return ray.getHitNormal();
+	}
+
+	@Override
+	public int getMaterialId(Ray ray) {
+		checkHit(ray);
+		return ray.getHitMaterialId();
+	}
+
+	/**
+	 * Checks that the nearest hit recorded on a ray is on this instance, so the normal and
+	 * material kept with it belong to one of its triangles.
+	 *
+	 * @param ray - The ray that hit the instance
+	 * @throws IllegalArgumentException if the ray did not hit this instance
+	 */
+	private void checkHit(Ray ray) {
+		if (ray.getHitShape() != this) {
+			throw new IllegalArgumentException("The ray did not hit this mesh instance");
+		}
+	}
+
+	/**
+	 * An instance has no normal of its own, each triangle of the mesh has its own.
+	 *
+	 * @throws UnsupportedOperationException always, use getNormal(Ray)
+	 */
+	@Override
+	public Vector getNormal() {
+		throw new UnsupportedOperationException("A mesh instance has no single normal, use getNormal(Ray)");
+	}
+
+	/**
+	 * An instance has no material of its own, each triangle of the mesh keeps its own.
+	 *
+	 * @throws UnsupportedOperationException always, use getMaterialId(Ray)
+	 */
+	@Override
+	public int getMaterialId() {
+		throw new UnsupportedOperationException("A mesh instance has no single material, use getMaterialId(Ray)");
+	}
+
+	/**
+	 * An instance has no material of its own, each triangle of the mesh keeps its own. The 
+	 * colour and reflectivity getters of Shape read this, so they throw as well.
+	 *
+	 * @throws UnsupportedOperationException always, use getMaterial(Ray)
+	 */
+	@Override
+	public Material getMaterial() {
+		throw new UnsupportedOperationException("A mesh instance has no single material, use getMaterial(Ray)");
+	}
+
+	/**
+	 * The materials of an instance belong to its mesh, change the mesh or the material table.
+	 *
+	 * @param materialId - ignored
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void setMaterialId(int materialId) {
+		throw new UnsupportedOperationException("The materials of a mesh instance belong to its mesh");
+	}
+
+	/**
+	 * The materials of an instance belong to its mesh, change the mesh or the material table.
+	 *
+	 * @param colour - ignored
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void alterColour(Color colour) {
+		throw new UnsupportedOperationException("The materials of a mesh instance belong to its mesh");
+	}
+}
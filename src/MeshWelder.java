@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+/**
+ * Cleans up scanned model data at load time. Welds coincident vertices together using a
+ * spatial hash and filters out zero-area and duplicate triangles so that fewer shapes reach
+ * the tree.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class MeshWelder {
+
+	// Vertex indexes are packed 21 bits each into the key of a face
+	private static final int INDEX_BITS = 21;
+	private static final int MAX_VERTICES = 1 << INDEX_BITS;
+
+	private double tolerance;
+	private HashSet<Long> faces = new HashSet<>();
+	private int weldedVertices = 0;
+	private int degenerateTriangles = 0;
+	private int duplicateTriangles = 0;
+
+	/**
+	 * Constructs a welder that merges any vertices closer than the tolerance.
+	 *
+	 * @param tolerance - Distance in world space under which two vertices are the same
+	 */
+	public MeshWelder(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Finds the vertex each point should be welded to. Points are hashed into cells the size of
+	 * the tolerance, so only the neighbouring cells need to be checked for a matching vertex.
+	 *
+	 * @param points - All points read from the model file
+	 * @return index of the vertex each point has been welded to
+	 * @throws IllegalArgumentException if the model has too many points to pack its faces
+	 */
+	public int[] weld(ArrayList<Point> points) {
+		if (points.size() > MAX_VERTICES) {
+			throw new IllegalArgumentException("Models of more than " + MAX_VERTICES + " points cannot be welded");
+		}
+		HashMap<Long, ArrayList<Integer>> cells = new HashMap<>();
+		int remap[] = new int[points.size()];
+		double toleranceSquared = tolerance * tolerance;
+
+		for (int i = 0; i < points.size(); i++) {
+			Point point = points.get(i);
+			long x = cellOf(point.getX());
+			long y = cellOf(point.getY());
+			long z = cellOf(point.getZ());
+			remap[i] = -1;
+
+			// Check the surrounding cells for a vertex within the tolerance
+			for (long dx = -1; dx <= 1 && remap[i] == -1; dx++) {
+				for (long dy = -1; dy <= 1 && remap[i] == -1; dy++) {
+					for (long dz = -1; dz <= 1 && remap[i] == -1; dz++) {
+						ArrayList<Integer> cell = cells.get(hash(x + dx, y + dy, z + dz));
+						if (cell == null) continue;
+						for (int index : cell) {
+							if (distanceSquared(point, points.get(index)) <= toleranceSquared) {
+								remap[i] = index;
+								break;
+							}
+						}
+					}
+				}
+			}
+
+			if (remap[i] == -1) {
+				remap[i] = i;
+				long key = hash(x, y, z);
+				ArrayList<Integer> cell = cells.get(key);
+				if (cell == null) {
+					cell = new ArrayList<>();
+					cells.put(key, cell);
+				}
+				cell.add(i);
+			} else {
+				weldedVertices++;
+			}
+		}
+		return remap;
+	}
+
+	/**
+	 * Checks whether a triangle should be kept. Triangles are dropped if welding has collapsed
+	 * two of their corners, their area is zero, or the same three vertices have already been used.
+	 * Faces are matched by their vertices in any order, so a face with the opposite winding of 
+	 * one already kept, facing the other way, also counts as a duplicate.
+	 *
+	 * @param index0 - Welded index of vertex v0
+	 * @param index1 - Welded index of vertex v1
+	 * @param index2 - Welded index of vertex v2
+	 * @param points - All points read from the model file
+	 * @return true if the triangle should be added to the scene
+	 * 		   false if it is degenerate or a duplicate
+	 */
+	public boolean accept(int index0, int index1, int index2, ArrayList<Point> points) {
+		if (index0 == index1 || index1 == index2 || index0 == index2) {
+			degenerateTriangles++;
+			return false;
+		}
+
+		Vector ab = new Vector(points.get(index0), points.get(index1));
+		Vector ac = new Vector(points.get(index0), points.get(index2));
+		Vector cross = ab.cross(ac);
+		// Twice the area of the triangle, compared squared to avoid the square root
+		if (cross.dot(cross) <= tolerance * tolerance * tolerance * tolerance) {
+			degenerateTriangles++;
+			return false;
+		}
+
+		// Sort the indexes so the same face with any winding matches
+		long low = Math.min(index0, Math.min(index1, index2));
+		long high = Math.max(index0, Math.max(index1, index2));
+		long middle = index0 + index1 + index2 - low - high;
+		if (!faces.add((low << (2 * INDEX_BITS)) | (middle << INDEX_BITS) | high)) {
+			duplicateTriangles++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieves the distance under which vertices are welded.
+	 *
+	 * @return the welding tolerance
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * Retrieves the number of vertices merged into another vertex.
+	 *
+	 * @return number of welded vertices
+	 */
+	public int getWeldedVertices() {
+		return weldedVertices;
+	}
+
+	/**
+	 * Retrieves the number of zero-area triangles removed.
+	 *
+	 * @return number of degenerate triangles
+	 */
+	public int getDegenerateTriangles() {
+		return degenerateTriangles;
+	}
+
+	/**
+	 * Retrieves the number of repeated triangles removed.
+	 *
+	 * @return number of duplicate triangles
+	 */
+	public int getDuplicateTriangles() {
+		return duplicateTriangles;
+	}
+
+	/**
+	 * Summarises the clean up, for printing with the other statistics.
+	 * 
+	 * @return the number of vertices welded and triangles removed
+	 */
+	public String toString() {
+		return weldedVertices + " vertices welded, " + degenerateTriangles + " degenerate and "
+				+ duplicateTriangles + " duplicate triangles removed";
+	}
+
+	/**
+	 * Finds the cell a coordinate falls into along one axis.
+	 *
+	 * @param value - World space coordinate
+	 * @return index of the cell
+	 */
+	private long cellOf(double value) {
+		return (long) Math.floor(value / tolerance);
+	}
+
+	/**
+	 * Packs the three cell indexes into a single key for the hash map.
+	 *
+	 * @param x - Cell index on the x axis
+	 * @param y - Cell index on the y axis
+	 * @param z - Cell index on the z axis
+	 * @return key of the cell
+	 */
+	private long hash(long x, long y, long z) {
+		return (x * 73856093L) ^ (y * 19349663L) ^ (z * 83492791L);
+	}
+
+	/**
+	 * Calculates the squared distance between two points.
+	 *
+	 * @param a - First point
+	 * @param b - Second point
+	 * @return squared distance in world space
+	 */
+	private double distanceSquared(Point a, Point b) {
+		Vector between = new Vector(a, b);
+		return between.dot(between);
+	}
+}
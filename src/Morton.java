@@ -0,0 +1,105 @@
+/**
+ * Orders pixels and tiles along a Z-order curve. Points next to each other on the curve are 
+ * close together in the image, so rays traced one after another pass through the same parts 
+ * of the tree and the same triangles stay in the processor cache.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class Morton {
+
+	/**
+	 * Interleaves the bits of two coordinates, x in the even bits and y in the odd bits.
+	 * 
+	 * @param x - x coordinate, up to 16 bits
+	 * @param y - y coordinate, up to 16 bits
+	 * @return the position of the point along the curve
+	 */
+	public static int encode(int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+	
+	/**
+	 * Interleaves the bits of three coordinates, x in every third bit starting from the lowest, 
+	 * then y, then z.
+	 * 
+	 * @param x - x coordinate, up to 10 bits
+	 * @param y - y coordinate, up to 10 bits
+	 * @param z - z coordinate, up to 10 bits
+	 * @return the position of the point along the curve
+	 */
+	public static int encode(int x, int y, int z) {
+		return spreadThree(x) | (spreadThree(y) << 1) | (spreadThree(z) << 2);
+	}
+	
+	/**
+	 * Lists every cell of a grid in Z-order.
+	 * 
+	 * @param width - Number of columns in the grid
+	 * @param height - Number of rows in the grid
+	 * @return the index y * width + x of each cell, in order along the curve
+	 */
+	public static int[] order(int width, int height) {
+		int size = 1;
+		while (size < width || size < height) {
+			size *= 2;
+		}
+		
+		// Walk the curve over the square around the grid, skipping cells outside it
+		int cells[] = new int[width * height];
+		int count = 0;
+		for (int code = 0; code < size * size; code++) {
+			int x = compact(code);
+			int y = compact(code >>> 1);
+			if (x < width && y < height) {
+				cells[count++] = y * width + x;
+			}
+		}
+		return cells;
+	}
+	
+	/**
+	 * Spreads the bits of a value out so there is a zero between each.
+	 * 
+	 * @param value - value up to 16 bits
+	 * @return the spread value
+	 */
+	private static int spread(int value) {
+		value &= 0xFFFF;
+		value = (value | (value << 8)) & 0x00FF00FF;
+		value = (value | (value << 4)) & 0x0F0F0F0F;
+		value = (value | (value << 2)) & 0x33333333;
+		value = (value | (value << 1)) & 0x55555555;
+		return value;
+	}
+	
+	/**
+	 * Spreads the bits of a value out so there are two zeros between each.
+	 * 
+	 * @param value - value up to 10 bits
+	 * @return the spread value
+	 */
+	private static int spreadThree(int value) {
+		value &= 0x3FF;
+		value = (value | (value << 16)) & 0x030000FF;
+		value = (value | (value << 8)) & 0x0300F00F;
+		value = (value | (value << 4)) & 0x030C30C3;
+		value = (value | (value << 2)) & 0x09249249;
+		return value;
+	}
+	
+	/**
+	 * Gathers the even bits of a value back together, the inverse of spread.
+	 * 
+	 * @param value - spread value
+	 * @return the value of the even bits
+	 */
+	private static int compact(int value) {
+		value &= 0x55555555;
+		value = (value | (value >>> 1)) & 0x33333333;
+		value = (value | (value >>> 2)) & 0x0F0F0F0F;
+		value = (value | (value >>> 4)) & 0x00FF00FF;
+		value = (value | (value >>> 8)) & 0x0000FFFF;
+		return value;
+	}
+}
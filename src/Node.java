@@ -1,6 +1,6 @@
 /**
  * A node within a KD tree containing a bounding volume, shapes list and left and right
- * children. 
+ * children. Only leaves hold shapes, a node hands its shapes to its children when it is split.
  * 
  * @author Oliver Jefford
  *
@@ -8,9 +8,12 @@
 public class Node {
 
 	private Box volume;
+	private Box bounds;
 	private Node left;
 	private Node right;
 	private Shape shapes[];
+	private int depth;
+	private volatile boolean splitPending = false;
 	
 	/**
 	 * Constructs a node with an allocated shapes list and the bounding volume
@@ -18,10 +21,12 @@ public class Node {
 	 * 
 	 * @param volume - Surrounding bounding box
 	 * @param shapes - List of shapes within the volume
+	 * @param depth - Depth of the node within the tree
 	 */
-	public Node(Box volume, Shape shapes[]) {
+	public Node(Box volume, Shape shapes[], int depth) {
 		this.volume = volume;
 		this.shapes = shapes;
+		this.depth = depth;
 		left = null;
 		right = null;
 	}
@@ -71,6 +76,43 @@ public class Node {
 		return shapes;
 	}
 	
+	/**
+	 * Replaces the shapes list within the current node.
+	 * 
+	 * @param shapes - New list of shapes within the volume
+	 */
+	public void setShapes(Shape shapes[]) {
+		this.shapes = shapes;
+	}
+	
+	/**
+	 * Retrieves the depth of the node within the tree.
+	 * 
+	 * @return the depth, 0 for the root
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	
+	/**
+	 * Marks the node as waiting to be split by a lazy tree.
+	 * 
+	 * @param splitPending - true if the node should be split when a ray reaches it
+	 */
+	public void setSplitPending(boolean splitPending) {
+		this.splitPending = splitPending;
+	}
+	
+	/**
+	 * Checks if the node is waiting to be split by a lazy tree.
+	 * 
+	 * @return true if the children have not been built yet
+	 * 		   false otherwise
+	 */
+	public boolean isSplitPending() {
+		return splitPending;
+	}
+	
 	/**
 	 * Checks if the node is a leaf. Leaf only if has no children.
 	 * 
@@ -84,6 +126,25 @@ public class Node {
 		return false;
 	}
 	
+	/**
+	 * Sets the tight bounding box around the shapes within the node.
+	 * 
+	 * @param bounds - box around the shapes, clipped to the volume of the node
+	 */
+	public void setBounds(Box bounds) {
+		this.bounds = bounds;
+	}
+	
+	/**
+	 * Retrieves the tight bounding box around the shapes within the node. Smaller than the 
+	 * volume when the shapes do not fill it, and null when the node is empty.
+	 * 
+	 * @return the bounds, or null if there are no shapes
+	 */
+	public Box getBounds() {
+		return bounds;
+	}
+	
 	/**
 	 * Retrieves the volume of the current node surround all shapes.
 	 * 
@@ -94,23 +155,54 @@ public class Node {
 	}
 	
 	/**
-	 * Performs ray-object intersection for all shapes within the current node.
+	 * Finds any shape within the current node that lies on the ray before a given distance.
+	 * 
+	 * @param ray - the shadow ray to check
+	 * @param maxDistance - distance along the ray to stop checking at
+	 * @param mailbox - shapes already checked by the ray
+	 * @return the first shape found blocking the ray, or null if nothing blocks it
+	 */
+	public Shape findOccluder(Ray ray, double maxDistance, Mailbox mailbox) {
+		for (int i = 0; i < shapes.length; i++) {
+			if (!mailbox.mark(shapes[i])) {
+				RenderStats.skippedIntersectionCounter.increment();
+				continue;
+			}
+			RenderStats.intersectionCheckCounter.increment();
+			if (shapes[i].isIntersectedBy(ray) != -1 && ray.getDistance() < maxDistance) {
+				return shapes[i];
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Performs ray-object intersection for all shapes within the current node. Shapes already
+	 * checked by the same ray in another leaf are skipped.
 	 * 
 	 * @param ray - casted ray to check for intersections
+	 * @param mailbox - shapes already checked by the ray
 	 * @return the shape at the intersection point
 	 */
-	public Shape isIntersectedBy(Ray ray) {
+	public Shape isIntersectedBy(Ray ray, Mailbox mailbox) {
 		Shape closest = null;
 		double closestDistance = Double.MAX_VALUE;
-		Image.intersectionCheckCounter += shapes.length;
 		for (int i = 0; i < shapes.length; i++) {
+			if (!mailbox.mark(shapes[i])) {
+				RenderStats.skippedIntersectionCounter.increment();
+				continue;
+			}
+			RenderStats.intersectionCheckCounter.increment();
 			if (shapes[i].isIntersectedBy(ray) != -1) {
-				if (ray.getDistance() <= closestDistance) {
+				if (KDTree.isNearer(shapes[i], ray.getDistance(), closest, closestDistance)) {
 					closest = shapes[i];	
 					closestDistance = ray.getDistance();
 				}
 			}
 		}
+		if (closest != null) {
+			ray.setDistance(closestDistance);
+		}
 		return closest;
 	}
 }
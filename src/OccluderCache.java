@@ -0,0 +1,74 @@
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * Remembers the last shape that blocked a shadow ray towards each light. Neighbouring pixels
+ * are usually shadowed by the same shape, so it is checked first before searching the tree.
+ * Each thread keeps its own cache.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class OccluderCache {
+
+	private static final ThreadLocal<OccluderCache> CACHES = new ThreadLocal<OccluderCache>() {
+		@Override
+		protected OccluderCache initialValue() {
+			return new OccluderCache();
+		}
+	};
+
+	private static final AtomicInteger generation = new AtomicInteger();
+
+	private IdentityHashMap<Light, Shape> occluders = new IdentityHashMap<>();
+	private int seenGeneration = generation.get();
+
+	/**
+	 * Retrieves the cache belonging to the current thread.
+	 *
+	 * @return the cache of this thread
+	 */
+	public static OccluderCache forThread() {
+		OccluderCache cache = CACHES.get();
+		if (cache.seenGeneration != generation.get()) {
+			cache.occluders.clear();
+			cache.seenGeneration = generation.get();
+		}
+		return cache;
+	}
+
+	/**
+	 * Finds a shape blocking a shadow ray, trying the last shape that blocked the light before
+	 * searching the tree. Any new blocker found is remembered for the next ray.
+	 *
+	 * @param light - the light the shadow ray points at
+	 * @param ray - the shadow ray
+	 * @param distance - distance from the ray origin to the light
+	 * @param tree - the tree to search if the remembered shape does not block the ray
+	 * @return a shape blocking the light, or null if the light is visible
+	 */
+	public Shape findOccluder(Light light, Ray ray, double distance, KDTree tree) {
+		Shape last = occluders.get(light);
+		if (last != null) {
+			RenderStats.intersectionCheckCounter.increment();
+			if (last.isIntersectedBy(ray) != -1 && ray.getDistance() < distance) {
+				RenderStats.occluderCacheHits.increment();
+				return last;
+			}
+		}
+
+		RenderStats.occluderCacheMisses.increment();
+		Shape occluder = tree.findOccluder(ray, distance);
+		if (occluder != null) {
+			occluders.put(light, occluder);
+		}
+		return occluder;
+	}
+
+	/**
+	 * Forgets every remembered shape on every thread, for when the scene has changed. Each
+	 * cache is emptied the next time its thread asks for it.
+	 */
+	public static void clearAll() {
+		generation.incrementAndGet();
+	}
+}
@@ -0,0 +1,213 @@
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * Reuses ambient occlusion between nearby points. Each computed value is stored with its 
+ * position, normal and the harmonic mean distance to the shapes around it, which sets how far 
+ * the value can be trusted. Values at other points are blended from every stored entry whose 
+ * estimated error is below a tolerance, and new rays are only fired where no entry is close 
+ * enough. Entries live in a grid of cells one maximum occlusion distance wide, shared by all 
+ * threads.
+ * <p>
+ * The error of an entry is Ward's split sphere estimate: the first order change in visibility 
+ * when the point is moved or turned inside a sphere whose one half is occluded, at the harmonic 
+ * mean distance. This is only exact for that sphere, so the tolerance is not a bound on the 
+ * error of the blended value. Occlusion rays stop at any shape rather than the nearest, which 
+ * makes the mean distance and the reach of entries too large near detailed geometry, and the 
+ * noise of the rays fired for an entry is reused along with it.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class OcclusionCache {
+
+	// Rough size of an entry with its place in the cell queue
+	private static final int ENTRY_BYTES = 112;
+	private static final double BEHIND_TOLERANCE = 0.05;
+	// Change in visibility of the split sphere per radius moved along the surface
+	private static final double TRANSLATION_ERROR = 4 / Math.PI;
+	
+	private final AmbientOcclusion ambientOcclusion;
+	private final double tolerance;
+	private final double cellSize;
+	private final double minRadius;
+	private ConcurrentHashMap<Long, ConcurrentLinkedQueue<Entry>> cells = new ConcurrentHashMap<>();
+	private AtomicInteger entries = new AtomicInteger();
+	
+	/**
+	 * A stored occlusion value.
+	 */
+	private static class Entry {
+		final double x, y, z;
+		final double nx, ny, nz;
+		final double radius;
+		final double visibility;
+		
+		Entry(Point point, Vector normal, double radius, double visibility) {
+			x = point.getX();
+			y = point.getY();
+			z = point.getZ();
+			nx = normal.getX();
+			ny = normal.getY();
+			nz = normal.getZ();
+			this.radius = radius;
+			this.visibility = visibility;
+		}
+	}
+	
+	/**
+	 * Constructs an empty cache.
+	 * 
+	 * @param ambientOcclusion - the estimator used where no entry can be reused
+	 * @param tolerance - largest estimated change in visibility allowed when reusing an entry, 
+	 * 		   from 0 to 1
+	 */
+	public OcclusionCache(AmbientOcclusion ambientOcclusion, double tolerance) {
+		if (tolerance <= 0 || tolerance > 1) {
+			throw new IllegalArgumentException("Tolerance must be above 0 and at most 1");
+		}
+		this.ambientOcclusion = ambientOcclusion;
+		this.tolerance = tolerance;
+		cellSize = ambientOcclusion.getMaxDistance();
+		minRadius = cellSize / 20;
+	}
+	
+	/**
+	 * Finds the ambient occlusion at a point, blending stored entries where they are close 
+	 * enough and firing occlusion rays otherwise.
+	 * 
+	 * @param point - the point on the surface
+	 * @param normal - unit normal on the side of the surface being shaded
+	 * @param tree - acceleration structure used for the occlusion rays
+	 * @param random - random number generator for this thread
+	 * @return the fraction of the sky visible from the point
+	 */
+	public double visibility(Point point, Vector normal, KDTree tree, Random random) {
+		double weightSum = 0;
+		double valueSum = 0;
+		long cellX = cell(point.getX());
+		long cellY = cell(point.getY());
+		long cellZ = cell(point.getZ());
+		
+		// Entries are never trusted further than their radius, at most a cell, so the neighbouring cells hold them all
+		for (long i = cellX - 1; i <= cellX + 1; i++) {
+			for (long j = cellY - 1; j <= cellY + 1; j++) {
+				for (long k = cellZ - 1; k <= cellZ + 1; k++) {
+					ConcurrentLinkedQueue<Entry> queue = cells.get(key(i, j, k));
+					if (queue == null) {
+						continue;
+					}
+					for (Entry entry : queue) {
+						double weight = weight(entry, point, normal);
+						if (weight > 0) {
+							weightSum += weight;
+							valueSum += weight * entry.visibility;
+						}
+					}
+				}
+			}
+		}
+		
+		if (weightSum > 0) {
+			RenderStats.occlusionCacheHits.increment();
+			return valueSum / weightSum;
+		}
+		
+		RenderStats.occlusionCacheMisses.increment();
+		double meanDistance[] = new double[1];
+		double visibility = ambientOcclusion.visibility(point, normal, tree, random, meanDistance);
+		double radius = Math.max(minRadius, Math.min(cellSize, meanDistance[0]));
+		Entry entry = new Entry(point, normal, radius, visibility);
+		cells.computeIfAbsent(key(cellX, cellY, cellZ), key -> new ConcurrentLinkedQueue<Entry>()).add(entry);
+		entries.incrementAndGet();
+		return visibility;
+	}
+	
+	/**
+	 * Weighs how well an entry predicts the occlusion at a point, by the split sphere estimate of 
+	 * how much the visibility changes between them. The translation term is the gradient of the 
+	 * half occluded sphere at the radius of the entry, and the rotation term the change as the 
+	 * normal turns towards the occluded half.
+	 * 
+	 * @param entry - the stored entry
+	 * @param point - the point being shaded
+	 * @param normal - unit normal at the point
+	 * @return the weight of the entry, 0 if its error is above the tolerance
+	 */
+	private double weight(Entry entry, Point point, Vector normal) {
+		double dx = point.getX() - entry.x;
+		double dy = point.getY() - entry.y;
+		double dz = point.getZ() - entry.z;
+		double cosine = normal.getX() * entry.nx + normal.getY() * entry.ny + normal.getZ() * entry.nz;
+		double error = TRANSLATION_ERROR * Math.sqrt(dx * dx + dy * dy + dz * dz) / entry.radius 
+				+ Math.sqrt(Math.max(0, 2 - 2 * cosine));
+		if (error >= tolerance) {
+			return 0;
+		}
+		
+		// Skip entries in front of the point, they see shapes the point is hidden from
+		double inFront = (dx * (normal.getX() + entry.nx) + dy * (normal.getY() + entry.ny) + dz * (normal.getZ() + entry.nz)) / 2;
+		if (inFront < -BEHIND_TOLERANCE * entry.radius) {
+			return 0;
+		}
+		return 1.0 / Math.max(error, 1e-6);
+	}
+	
+	/**
+	 * Finds the cell a coordinate falls in.
+	 * 
+	 * @param coordinate - position on one axis
+	 * @return index of the cell on the axis
+	 */
+	private long cell(double coordinate) {
+		return (long) Math.floor(coordinate / cellSize);
+	}
+	
+	/**
+	 * Packs the indices of a cell into one key, 21 bits per axis.
+	 * 
+	 * @param i - cell x
+	 * @param j - cell y
+	 * @param k - cell z
+	 * @return the key of the cell
+	 */
+	private static long key(long i, long j, long k) {
+		return ((i & 0x1FFFFF) << 42) | ((j & 0x1FFFFF) << 21) | (k & 0x1FFFFF);
+	}
+	
+	/**
+	 * Forgets every entry, for when the geometry of the scene changes.
+	 */
+	public void clear() {
+		cells.clear();
+		entries.set(0);
+	}
+	
+	/**
+	 * Retrieves the estimator used where no entry can be reused.
+	 * 
+	 * @return the ambient occlusion estimator
+	 */
+	public AmbientOcclusion getAmbientOcclusion() {
+		return ambientOcclusion;
+	}
+	
+	/**
+	 * Retrieves the number of stored entries.
+	 * 
+	 * @return the number of entries
+	 */
+	public int getEntryCount() {
+		return entries.get();
+	}
+	
+	/**
+	 * Estimates the memory used by the stored entries.
+	 * 
+	 * @return size of the cache in bytes
+	 */
+	public long getMemoryUsage() {
+		return (long) entries.get() * ENTRY_BYTES;
+	}
+}
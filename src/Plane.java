@@ -37,6 +37,16 @@ public class Plane extends Shape {
 		}
 	}
 	
+	@Override
+	public void translate(Vector offset) {
+		point = point.add(offset);
+	}
+	
+	@Override
+	public boolean isBounded() {
+		return false;
+	}
+	
 	@Override
 	public Vector getNormal() {
 		return normal.normalise();
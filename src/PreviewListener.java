@@ -0,0 +1,22 @@
+import java.awt.image.BufferedImage;
+/**
+ * Receives the image of a progressive render each time it has been refined enough to show.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public interface PreviewListener {
+
+	/**
+	 * Called with the image traced so far. Called on the thread that started the render,
+	 * which waits for it to return.
+	 *
+	 * @param frame - The finished tiles of the image so far, only written to by the render 
+	 * 		   between calls, so copy it to keep it
+	 * @param blockSize - Side in pixels of the blocks filled by each traced ray, 1 once the
+	 * 		   full pass has started
+	 * @param finished - true for the final image
+	 * @param elapsed - Milliseconds since rayTrace was called
+	 */
+	void previewReady(BufferedImage frame, int blockSize, boolean finished, long elapsed);
+}
@@ -0,0 +1,232 @@
+import java.util.ArrayList;
+/**
+ * Finds what every camera ray of an image hits by drawing the triangles of the scene into a
+ * depth buffer instead of tracing the rays through the tree. Each triangle is projected onto
+ * the image with the basis of the camera and every sample it covers keeps it if it is nearer
+ * than what the sample already holds. Shapes that are not triangles, and triangles reaching
+ * behind the camera, are few and are checked against each ray directly.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class Rasteriser {
+
+	// Triangles with any corner nearer than this to the camera plane are traced instead
+	private static final double NEAR = 1e-6;
+	// Triangles with a smaller projected area are seen edge on and cover no samples
+	private static final double MIN_AREA = 1e-12;
+
+	private final Point origin;
+	private final Vector forward;
+	private final Vector right;
+	private final Vector up;
+	private final int imageWidth;
+	private final int imageHeight;
+	private final double aspectRatio;
+	private final double viewWidth;
+	private final double viewHeight;
+	private final double offsets[][];
+	private final RayGenerator generator;
+
+	/**
+	 * Constructs a rasteriser for a frame.
+	 *
+	 * @param camera - The viewpoint of the image
+	 * @param imageWidth - Number of pixels in the width
+	 * @param imageHeight - Number of pixels in the height
+	 * @param aspectRatio - Aspect ratio of the image
+	 * @param offsets - Offset of each sample within a pixel, x then y
+	 */
+	public Rasteriser(Camera camera, int imageWidth, int imageHeight, double aspectRatio, double offsets[][]) {
+		origin = camera.getViewPoint();
+		forward = camera.getVPN();
+		right = camera.getVRV();
+		up = camera.getVUV();
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.aspectRatio = aspectRatio;
+		viewWidth = camera.getWidth();
+		viewHeight = camera.getHeight();
+		this.offsets = offsets;
+		generator = new RayGenerator(camera, imageWidth, imageHeight, aspectRatio, offsets);
+	}
+
+	/**
+	 * Finds the nearest shape hit by every camera ray and stores it in a G-buffer.
+	 *
+	 * @param scene - Scene containing all objects
+	 * @param gBuffer - Buffer the size of the image to store the hits into
+	 * @return the number of shapes checked against each ray directly
+	 */
+	public int render(Scene scene, GBuffer gBuffer) {
+		int size = imageWidth * imageHeight * offsets.length;
+		// Nearer hits have a larger inverse depth, 0 means nothing has been drawn
+		double inverseDepths[] = new double[size];
+		Triangle nearest[] = new Triangle[size];
+		ArrayList<Shape> traced = new ArrayList<>();
+
+		for (int i = 0; i < scene.getShapesListLength(); i++) {
+			Shape shape = scene.getShapesList(i);
+			if (!(shape instanceof Triangle) || !draw((Triangle) shape, inverseDepths, nearest)) {
+				traced.add(shape);
+			}
+		}
+
+		resolve(gBuffer, nearest, traced);
+		return traced.size();
+	}
+
+	/**
+	 * Draws a triangle into the depth buffer. Depth is interpolated as its inverse, which
+	 * changes linearly across the image.
+	 *
+	 * @param triangle - The triangle to draw
+	 * @param inverseDepths - Inverse depth of the nearest triangle at each sample
+	 * @param nearest - Nearest triangle at each sample
+	 * @return true if the triangle was drawn
+	 * 		   false if it reaches behind the camera and must be traced instead
+	 */
+	private boolean draw(Triangle triangle, double inverseDepths[], Triangle nearest[]) {
+		double p0[] = new double[3];
+		double p1[] = new double[3];
+		double p2[] = new double[3];
+		if (!project(triangle.getV0(), p0) || !project(triangle.getV1(), p1) || !project(triangle.getV2(), p2)) {
+			return false;
+		}
+
+		double area = edge(p0, p1, p2[0], p2[1]);
+		if (Math.abs(area) < MIN_AREA) {
+			return true;
+		}
+
+		int xStart = Math.max(0, (int) Math.floor(Math.min(p0[0], Math.min(p1[0], p2[0]))) - 1);
+		int xEnd = Math.min(imageWidth - 1, (int) Math.ceil(Math.max(p0[0], Math.max(p1[0], p2[0]))));
+		int yStart = Math.max(0, (int) Math.floor(Math.min(p0[1], Math.min(p1[1], p2[1]))) - 1);
+		int yEnd = Math.min(imageHeight - 1, (int) Math.ceil(Math.max(p0[1], Math.max(p1[1], p2[1]))));
+
+		for (int y = yStart; y <= yEnd; y++) {
+			for (int x = xStart; x <= xEnd; x++) {
+				for (int sample = 0; sample < offsets.length; sample++) {
+					double sampleX = x + offsets[sample][0];
+					double sampleY = y + offsets[sample][1];
+					// Weights of each corner, all positive when the sample is inside
+					double w0 = edge(p1, p2, sampleX, sampleY) / area;
+					double w1 = edge(p2, p0, sampleX, sampleY) / area;
+					double w2 = 1 - w0 - w1;
+					if (w0 < 0 || w1 < 0 || w2 < 0) {
+						continue;
+					}
+
+					int index = (y * imageWidth + x) * offsets.length + sample;
+					double inverseDepth = w0 * p0[2] + w1 * p1[2] + w2 * p2[2];
+					if (inverseDepth > inverseDepths[index]) {
+						inverseDepths[index] = inverseDepth;
+						nearest[index] = triangle;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Works out the exact hit of every sample, checking the shapes that were not drawn against
+	 * its ray, and stores it in the G-buffer. Distances are measured along the same rays the
+	 * camera fires, so they match the distances found by tracing. Drawn triangles are solved
+	 * from the buffered directions without creating objects, but a Ray and a Vector are still 
+	 * created for each sample while there are shapes to check directly.
+	 *
+	 * @param gBuffer - Buffer to store the hits into
+	 * @param nearest - Nearest drawn triangle at each sample
+	 * @param traced - Shapes to check against every ray
+	 */
+	private void resolve(GBuffer gBuffer, Triangle nearest[], ArrayList<Shape> traced) {
+		int row[] = new int[imageWidth];
+		for (int x = 0; x < imageWidth; x++) {
+			row[x] = x;
+		}
+		RayBuffer rays = RayBuffer.forThread();
+
+		for (int y = 0; y < imageHeight; y++) {
+			generator.fill(rays, 0, y, imageWidth, row);
+			for (int x = 0; x < imageWidth; x++) {
+				for (int sample = 0; sample < offsets.length; sample++) {
+					int ray = x * offsets.length + sample;
+					int index = gBuffer.index(x, y, sample);
+
+					Shape closest = nearest[index];
+					double closestDistance = Double.MAX_VALUE;
+					Vector normal = null;
+					int materialId = -1;
+					if (closest != null) {
+						normal = closest.getNormal();
+						materialId = closest.getMaterialId();
+						Point v0 = nearest[index].getV0();
+						double offset = (v0.getX() - origin.getX()) * normal.getX() + (v0.getY() - origin.getY()) * normal.getY() 
+								+ (v0.getZ() - origin.getZ()) * normal.getZ();
+						double facing = rays.directionX[ray] * normal.getX() + rays.directionY[ray] * normal.getY() 
+								+ rays.directionZ[ray] * normal.getZ();
+						closestDistance = offset / facing;
+					}
+
+					if (!traced.isEmpty()) {
+						Ray cameraRay = rays.toRay(ray, origin);
+						for (Shape shape : traced) {
+							RenderStats.intersectionCheckCounter.increment();
+							if (shape.isIntersectedBy(cameraRay) != -1 && cameraRay.getDistance() < closestDistance) {
+								closest = shape;
+								closestDistance = cameraRay.getDistance();
+								// Taken straight away as the ray only holds the distance of its last hit
+								normal = shape.getNormal(cameraRay);
+								materialId = shape.getMaterialId(cameraRay);
+							}
+						}
+					}
+
+					if (closest == null) {
+						gBuffer.storeMiss(index);
+					} else {
+						gBuffer.store(index, closest, closestDistance, normal, materialId);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Projects a point onto the image, the inverse of how the camera fires its rays.
+	 *
+	 * @param point - The point to project
+	 * @param projected - Array of three to receive the pixel x and y, and the inverse of the
+	 * 		   depth of the point along the view direction
+	 * @return true if the point is in front of the camera
+	 */
+	private boolean project(Point point, double projected[]) {
+		Vector toPoint = new Vector(origin, point);
+		double depth = toPoint.dot(forward);
+		if (depth <= NEAR) {
+			return false;
+		}
+
+		double rightScale = toPoint.dot(right) / depth;
+		double upScale = toPoint.dot(up) / depth;
+		projected[0] = ((-rightScale / viewWidth) / aspectRatio + 1) * imageWidth / 2;
+		projected[1] = (1 - upScale / viewHeight) * imageHeight / 2;
+		projected[2] = 1 / depth;
+		return true;
+	}
+
+	/**
+	 * Calculates twice the signed area of the triangle made by an edge and a point, positive
+	 * if the point is on one side of the edge and negative on the other.
+	 *
+	 * @param a - Projected start of the edge
+	 * @param b - Projected end of the edge
+	 * @param x - Pixel x of the point
+	 * @param y - Pixel y of the point
+	 * @return the signed area
+	 */
+	private static double edge(double a[], double b[], double x, double y) {
+		return (b[0] - a[0]) * (y - a[1]) - (b[1] - a[1]) * (x - a[0]);
+	}
+}
@@ -9,6 +9,13 @@ public class Ray {
 	private Point origin;
 	private Vector direction;
 	private double t;
+	private double throughput = 1;
+	private RayBudget budget;
+	// Nearest hit on a shape whose normal and material cannot be found again from the distance
+	private Shape hitShape;
+	private double hitDistance;
+	private Vector hitNormal;
+	private int hitMaterialId;
 	
 	/**
 	 * Constructs a ray using an origin and direction vector. 
@@ -57,6 +64,90 @@ public class Ray {
 		return t;
 	}
 	
+	/**
+	 * Sets how much of the colour seen along this ray reaches the camera, the product of the 
+	 * specular reflectivity of every surface it has been reflected off.
+	 * 
+	 * @param throughput - fraction of light carried back to the camera
+	 */
+	public void setThroughput(double throughput) {
+		this.throughput = throughput;
+	}
+	
+	/**
+	 * Retrieves how much of the colour seen along this ray reaches the camera.
+	 * 
+	 * @return the throughput, 1 for rays fired from the camera
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+	
+	/**
+	 * Sets the budget of reflection rays shared by the pixel this ray belongs to.
+	 * 
+	 * @param budget - the shared budget, or null for no limit
+	 */
+	public void setBudget(RayBudget budget) {
+		this.budget = budget;
+	}
+	
+	/**
+	 * Retrieves the budget of reflection rays for the pixel this ray belongs to.
+	 * 
+	 * @return the shared budget, or null for no limit
+	 */
+	public RayBudget getBudget() {
+		return budget;
+	}
+	
+	/**
+	 * Records the normal and material found when the ray hit a shape, for shapes that cannot
+	 * work them out again from the distance alone. Only the nearest hit is kept, with ties 
+	 * going to the lower shape id as in the tree, so the details belong to the shape the 
+	 * intersection query ends up returning.
+	 * 
+	 * @param shape - The shape hit
+	 * @param distance - Distance along the ray to the hit
+	 * @param normal - Normal at the hit in world space
+	 * @param materialId - Id of the material at the hit
+	 */
+	public void recordHit(Shape shape, double distance, Vector normal, int materialId) {
+		if (KDTree.isNearer(shape, distance, hitShape, hitDistance)) {
+			hitShape = shape;
+			hitDistance = distance;
+			hitNormal = normal;
+			hitMaterialId = materialId;
+		}
+	}
+	
+	/**
+	 * Retrieves the shape of the nearest hit recorded on the ray.
+	 * 
+	 * @return the shape, or null if no hit was recorded
+	 */
+	public Shape getHitShape() {
+		return hitShape;
+	}
+	
+	/**
+	 * Retrieves the normal of the nearest hit recorded on the ray.
+	 * 
+	 * @return the normal in world space
+	 */
+	public Vector getHitNormal() {
+		return hitNormal;
+	}
+	
+	/**
+	 * Retrieves the material id of the nearest hit recorded on the ray.
+	 * 
+	 * @return the material id
+	 */
+	public int getHitMaterialId() {
+		return hitMaterialId;
+	}
+	
 	/**
 	 * Calculates the intersection point using all attributes of the ray.
 	 *  P = o + dt
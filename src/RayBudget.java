@@ -0,0 +1,43 @@
+/**
+ * A limit on how many reflection rays can be fired for a single pixel. Shared by every ray 
+ * traced for the pixel so deep reflections have a predictable cost.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class RayBudget {
+
+	private int remaining;
+	
+	/**
+	 * Constructs a budget allowing a number of rays.
+	 * 
+	 * @param rays - number of reflection rays allowed
+	 */
+	public RayBudget(int rays) {
+		remaining = rays;
+	}
+	
+	/**
+	 * Takes one ray from the budget if any are left.
+	 * 
+	 * @return true if the ray can be fired
+	 * 		   false if the budget has run out
+	 */
+	public boolean spend() {
+		if (remaining <= 0) {
+			return false;
+		}
+		remaining--;
+		return true;
+	}
+	
+	/**
+	 * Retrieves the number of rays left in the budget.
+	 * 
+	 * @return rays left
+	 */
+	public int getRemaining() {
+		return remaining;
+	}
+}
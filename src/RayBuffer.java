@@ -0,0 +1,67 @@
+/**
+ * Holds the directions of a batch of camera rays in flat arrays, one per axis, so a whole tile 
+ * of rays can be written without creating an object for each. Each thread reuses its own buffer.
+ * This only cuts down the objects made per ray: intersection tests take a Ray, so every ray 
+ * that is traced is still turned into one with toRay.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class RayBuffer {
+
+	private static final ThreadLocal<RayBuffer> BUFFERS = new ThreadLocal<RayBuffer>() {
+		@Override
+		protected RayBuffer initialValue() {
+			return new RayBuffer();
+		}
+	};
+	
+	double directionX[] = new double[0];
+	double directionY[] = new double[0];
+	double directionZ[] = new double[0];
+	private int size;
+	
+	/**
+	 * Retrieves the buffer belonging to the current thread.
+	 * 
+	 * @return the buffer of this thread
+	 */
+	public static RayBuffer forThread() {
+		return BUFFERS.get();
+	}
+	
+	/**
+	 * Empties the buffer, growing it if it cannot hold a number of rays.
+	 * 
+	 * @param rays - number of rays about to be written
+	 */
+	public void reset(int rays) {
+		if (directionX.length < rays) {
+			directionX = new double[rays];
+			directionY = new double[rays];
+			directionZ = new double[rays];
+		}
+		size = rays;
+	}
+	
+	/**
+	 * Retrieves the number of rays in the buffer.
+	 * 
+	 * @return the number of rays written
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Creates a ray from one entry of the buffer. A new Ray and Vector are allocated on every 
+	 * call, so callers keep the ray rather than making it again.
+	 * 
+	 * @param index - index of the ray
+	 * @param origin - the point the ray starts from
+	 * @return the ray
+	 */
+	public Ray toRay(int index, Point origin) {
+		return new Ray(origin, new Vector(directionX[index], directionY[index], directionZ[index]));
+	}
+}
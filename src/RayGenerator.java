@@ -0,0 +1,160 @@
+/**
+ * Writes the rays fired from the camera for a frame. The position of every column and row of 
+ * samples on the viewing plane is worked out once when the generator is made, so each ray only 
+ * costs a few multiplications and a square root.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class RayGenerator {
+
+	private final Point origin;
+	private final Vector forward;
+	private final Vector right;
+	private final Vector up;
+	private final int samples;
+	private final double rightScales[];
+	private final double upScales[];
+	private final double viewWidth;
+	private final double viewHeight;
+	private final int imageWidth;
+	private final int imageHeight;
+	private final double aspectRatio;
+	
+	/**
+	 * Constructs a generator for a frame.
+	 * 
+	 * @param camera - The viewpoint of the image
+	 * @param imageWidth - Number of pixels in the width
+	 * @param imageHeight - Number of pixels in the height
+	 * @param aspectRatio - Aspect ratio of the image
+	 * @param offsets - Offset of each sample within a pixel, x then y
+	 */
+	public RayGenerator(Camera camera, int imageWidth, int imageHeight, double aspectRatio, double offsets[][]) {
+		origin = camera.getViewPoint();
+		forward = camera.getVPN();
+		right = camera.getVRV();
+		up = camera.getVUV();
+		samples = offsets.length;
+		viewWidth = camera.getWidth();
+		viewHeight = camera.getHeight();
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.aspectRatio = aspectRatio;
+		
+		// Distance along the right and up vectors of every sample column and row
+		rightScales = new double[imageWidth * samples];
+		for (int x = 0; x < imageWidth; x++) {
+			for (int sample = 0; sample < samples; sample++) {
+				double xPos = ((((2.0 * (x + offsets[sample][0])) / imageWidth) - 1.0) * aspectRatio) * -1.0;
+				rightScales[x * samples + sample] = camera.getWidth() * xPos;
+			}
+		}
+		upScales = new double[imageHeight * samples];
+		for (int y = 0; y < imageHeight; y++) {
+			for (int sample = 0; sample < samples; sample++) {
+				// Reversed formula to compensate for parallel projection viewing
+				double yPos = (((-2.0 * (y + offsets[sample][1])) / imageHeight) + 1.0);
+				upScales[y * samples + sample] = camera.getHeight() * yPos;
+			}
+		}
+	}
+	
+	/**
+	 * Writes the rays of every sample of a block of pixels into a buffer, a pixel at a time in 
+	 * the given order.
+	 * 
+	 * @param buffer - The buffer to write to
+	 * @param tileX - Pixel x of the top left corner of the block
+	 * @param tileY - Pixel y of the top left corner of the block
+	 * @param width - Width of the block in pixels
+	 * @param order - Index y * width + x within the block of each pixel, in the order to write them
+	 */
+	public void fill(RayBuffer buffer, int tileX, int tileY, int width, int order[]) {
+		buffer.reset(order.length * samples);
+		double fx = forward.getX(), fy = forward.getY(), fz = forward.getZ();
+		double rx = right.getX(), ry = right.getY(), rz = right.getZ();
+		double ux = up.getX(), uy = up.getY(), uz = up.getZ();
+		
+		int index = 0;
+		for (int pixel : order) {
+			int x = tileX + pixel % width;
+			int y = tileY + pixel / width;
+			for (int sample = 0; sample < samples; sample++) {
+				double rightScale = rightScales[x * samples + sample];
+				double upScale = upScales[y * samples + sample];
+				double dx = (fx + rx * rightScale) + ux * upScale;
+				double dy = (fy + ry * rightScale) + uy * upScale;
+				double dz = (fz + rz * rightScale) + uz * upScale;
+				double length = Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+				buffer.directionX[index] = dx / length;
+				buffer.directionY[index] = dy / length;
+				buffer.directionZ[index] = dz / length;
+				index++;
+			}
+		}
+	}
+	
+	/**
+	 * Works out the planes around every ray fired through a block of pixels: one through the 
+	 * camera and each edge of the block, and one across the camera facing forward. Points 
+	 * the rays can reach have a positive distance from every plane.
+	 * 
+	 * @param tileX - Pixel x of the top left corner of the block
+	 * @param tileY - Pixel y of the top left corner of the block
+	 * @param width - Width of the block in pixels
+	 * @param height - Height of the block in pixels
+	 * @return each plane as normal x, y, z and offset
+	 */
+	public double[][] getFrustum(int tileX, int tileY, int width, int height) {
+		// Directions through the corners of the block, going round it
+		Vector corners[] = {cornerDirection(tileX, tileY), cornerDirection(tileX + width, tileY), 
+				cornerDirection(tileX + width, tileY + height), cornerDirection(tileX, tileY + height)};
+		Vector centre = corners[0].plus(corners[1]).plus(corners[2]).plus(corners[3]);
+		
+		double planes[][] = new double[5][];
+		for (int i = 0; i < 4; i++) {
+			Vector normal = corners[i].cross(corners[(i + 1) % 4]);
+			if (normal.dot(centre) < 0) {
+				normal = normal.negate();
+			}
+			planes[i] = plane(normal);
+		}
+		planes[4] = plane(forward);
+		return planes;
+	}
+	
+	/**
+	 * Calculates the direction from the camera through a corner of a pixel, the same way 
+	 * sample directions are worked out.
+	 * 
+	 * @param x - Pixel x of the corner
+	 * @param y - Pixel y of the corner
+	 * @return the direction, not normalised
+	 */
+	private Vector cornerDirection(double x, double y) {
+		double rightScale = viewWidth * (((((2.0 * x) / imageWidth) - 1.0) * aspectRatio) * -1.0);
+		double upScale = viewHeight * (((-2.0 * y) / imageHeight) + 1.0);
+		return forward.plus(right.times(rightScale)).plus(up.times(upScale));
+	}
+	
+	/**
+	 * Builds a plane through the camera with the given normal.
+	 * 
+	 * @param normal - Normal of the plane, pointing inside
+	 * @return normal x, y, z and offset of the plane
+	 */
+	private double[] plane(Vector normal) {
+		double offset = -(normal.getX() * origin.getX() + normal.getY() * origin.getY() + normal.getZ() * origin.getZ());
+		return new double[] {normal.getX(), normal.getY(), normal.getZ(), offset};
+	}
+	
+	/**
+	 * Retrieves the point every ray starts from.
+	 * 
+	 * @return the origin of the camera
+	 */
+	public Point getOrigin() {
+		return origin;
+	}
+}
@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * Counts the work done while tracing, for comparing settings and finding where the time of a
+ * frame goes. Counters are added to from every tracing thread, so each is a LongAdder.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class RenderStats {
+
+	// Totals kept across frames
+	static final LongAdder intersectionCheckCounter = new LongAdder();
+	static final LongAdder skippedIntersectionCounter = new LongAdder();
+	static final LongAdder nodeVisitCounter = new LongAdder();
+	// Lights and shadows of the last frame
+	static final LongAdder skippedLightCounter = new LongAdder();
+	static final LongAdder shadowRayCounter = new LongAdder();
+	static final LongAdder occluderCacheHits = new LongAdder();
+	static final LongAdder occluderCacheMisses = new LongAdder();
+	static final LongAdder shadowMapLookups = new LongAdder();
+	static final LongAdder shadowMapTime = new LongAdder();
+	// Camera and reflection rays of the last frame
+	static final LongAdder primaryRayCounter = new LongAdder();
+	static final LongAdder primaryHintHits = new LongAdder();
+	static final LongAdder primaryHintMisses = new LongAdder();
+	static final LongAdder reflectionRayCounter = new LongAdder();
+	static final LongAdder russianRouletteCounter = new LongAdder();
+	static final LongAdder budgetExhaustedCounter = new LongAdder();
+	static final LongAdder raySortTime = new LongAdder();
+	static final LongAdder secondaryTraversalTime = new LongAdder();
+	// Ambient occlusion of the last frame
+	static final LongAdder occlusionRayCounter = new LongAdder();
+	static final LongAdder occlusionTime = new LongAdder();
+	static final LongAdder occlusionCacheHits = new LongAdder();
+	static final LongAdder occlusionCacheMisses = new LongAdder();
+
+	/**
+	 * Clears the counters of the last frame before tracing or shading another. The totals
+	 * kept across frames are left as they are.
+	 */
+	static void resetFrame() {
+		skippedLightCounter.reset();
+		shadowRayCounter.reset();
+		occluderCacheHits.reset();
+		occluderCacheMisses.reset();
+		shadowMapLookups.reset();
+		shadowMapTime.reset();
+		primaryRayCounter.reset();
+		primaryHintHits.reset();
+		primaryHintMisses.reset();
+		reflectionRayCounter.reset();
+		russianRouletteCounter.reset();
+		budgetExhaustedCounter.reset();
+		raySortTime.reset();
+		secondaryTraversalTime.reset();
+		occlusionRayCounter.reset();
+		occlusionTime.reset();
+		occlusionCacheHits.reset();
+		occlusionCacheMisses.reset();
+	}
+}
@@ -17,8 +17,13 @@ public class Scene {
 	private ArrayList<Point> pointList = new ArrayList<>();
 	private ArrayList<Light> lightsList = new ArrayList<>();
 	private Shape shapes[];
+	private LightTree lightTree;
 	private Box volume;
 	private KDTree tree;
+	private int treeDepth;
+	private boolean treeOutdated = false;
+	private boolean lazyTree = false;
+	private MeshWelder welder;
 	
 	/**
 	 * Empty constructor to create a scene object.
@@ -34,11 +39,72 @@ public class Scene {
 	}
 	
 	/**
-	 * Adds a shape to the shape list.
+	 * Adds a shape to the shape list. If the tree has already been built the shape is 
+	 * inserted into it as well.
 	 * @param shape - The shape to be added to the list
 	 */
 	public void addToShapesList(Shape shape) {
 		shapesList.add(shape);
+		if (tree != null && !tree.insert(shape)) {
+			treeOutdated = true;
+		}
+	}
+	
+	/**
+	 * Removes a shape from the shape list and from the tree if it has been built.
+	 * @param shape - The shape to be removed from the list
+	 */
+	public void removeFromShapesList(Shape shape) {
+		if (shapesList.remove(shape) && tree != null) {
+			tree.remove(shape);
+		}
+	}
+	
+	/**
+	 * Moves a shape through the scene, updating only the parts of the tree it leaves and enters.
+	 * @param shape - The shape to move
+	 * @param offset - Distance and direction to move the shape
+	 * @throws IllegalArgumentException if the shape is not in the scene
+	 */
+	public void moveShape(Shape shape, Vector offset) {
+		removeForMove(shape);
+		shape.translate(offset);
+		if (tree != null && !tree.insert(shape)) {
+			treeOutdated = true;
+		}
+	}
+	
+	/**
+	 * Places a mesh instance at a new transform, updating only the parts of the tree it leaves
+	 * and enters.
+	 * @param instance - The instance to move
+	 * @param transform - New object to world space transform
+	 * @throws IllegalArgumentException if the instance is not in the scene
+	 */
+	public void moveInstance(MeshInstance instance, Transform transform) {
+		removeForMove(instance);
+		instance.setTransform(transform);
+		if (tree != null && !tree.insert(instance)) {
+			treeOutdated = true;
+		}
+	}
+	
+	/**
+	 * Takes a shape that is about to move out of the tree. An up to date tree holds every shape 
+	 * in the list, so the list is only searched when there is no tree to ask.
+	 * @param shape - The shape about to move
+	 * @throws IllegalArgumentException if the shape is not in the scene
+	 */
+	private void removeForMove(Shape shape) {
+		boolean found;
+		if (tree != null) {
+			found = tree.remove(shape) || (treeOutdated && shapesList.contains(shape));
+		} else {
+			found = shapesList.contains(shape);
+		}
+		if (!found) {
+			throw new IllegalArgumentException("Only shapes in the scene can be moved");
+		}
 	}
 	
 	/**
@@ -55,6 +121,17 @@ public class Scene {
 	 */
 	public void addToLightsList(Light light) {
 		lightsList.add(light);
+		lightTree = null;
+	}
+	
+	/**
+	 * Moves a light to a new position.
+	 * @param light - The light to move
+	 * @param position - New origin of the light
+	 */
+	public void moveLight(Light light, Point position) {
+		light.setPosition(position);
+		lightTree = null;
 	}
 	
 	/**
@@ -99,6 +176,18 @@ public class Scene {
 		return lightsList.size();
 	}
 	
+	/**
+	 * Retrieves the hierarchy over all lights in the scene, building it again if any lights 
+	 * have been added since it was last used.
+	 * @return the light hierarchy
+	 */
+	public LightTree getLightTree() {
+		if (lightTree == null) {
+			lightTree = new LightTree(lightsList);
+		}
+		return lightTree;
+	}
+	
 	/**
 	 * Checks for any intersections with a singular bounding box.
 	 * @param ray - The ray checking for intersections
@@ -131,13 +220,51 @@ public class Scene {
 	}
 	
 	/**
-	 * Constructs a tree using the shapes from the scene.
+	 * Constructs a tree using the shapes from the scene. The bounding volume is fitted to every 
+	 * finite shape in the list, including any shapes or instances added since the last build.
 	 * 
 	 * @param maxDepth - The maximum depth of the tree
 	 * @return the constructed balanced tree 
 	 */
 	public KDTree buildTree(int maxDepth) {
-		tree = new KDTree(shapes, maxDepth, volume);
+		shapes = shapesList.toArray(new Shape[shapesList.size()]);
+		
+		ArrayList<Shape> bounded = new ArrayList<>();
+		for (int i = 0; i < shapes.length; i++) {
+			if (shapes[i].isBounded()) {
+				bounded.add(shapes[i]);
+			}
+		}
+		volume = Box.around(bounded.toArray(new Shape[bounded.size()]));
+		
+		tree = new KDTree(shapes, maxDepth, volume, lazyTree);
+		treeDepth = maxDepth;
+		treeOutdated = false;
+		return tree;
+	}
+	
+	/**
+	 * Chooses whether the tree is built lazily. A lazy tree is ready almost straight away and 
+	 * splits each node when the first ray reaches it, which suits previews and cropped renders.
+	 * 
+	 * @param lazy - true to build the tree on demand while tracing
+	 */
+	public void setLazyTree(boolean lazy) {
+		lazyTree = lazy;
+	}
+	
+	/**
+	 * Retrieves a tree ready for rendering. The tree from the last frame is kept if the updates 
+	 * since then have not made it noticeably slower to traverse, otherwise it is built again.
+	 * 
+	 * @param maxDepth - The maximum depth of the tree
+	 * @return the updated or rebuilt tree
+	 */
+	public KDTree updateTree(int maxDepth) {
+		if (tree == null || treeOutdated || treeDepth != maxDepth || tree.isLazy() != lazyTree || tree.needsRebuild()) {
+			return buildTree(maxDepth);
+		}
+		shapes = shapesList.toArray(new Shape[shapesList.size()]);
 		return tree;
 	}
 	
@@ -149,6 +276,29 @@ public class Scene {
 		return volume;
 	}
 	
+	/**
+	 * Turns on vertex welding for any model files read afterwards. Vertices closer than the
+	 * tolerance are merged, and zero-area or duplicate triangles are not added to the scene.
+	 * 
+	 * @param tolerance - Distance under which two vertices are welded, 0 to turn welding off
+	 */
+	public void setVertexWelding(double tolerance) {
+		if (tolerance > 0) {
+			welder = new MeshWelder(tolerance);
+		} else {
+			welder = null;
+		}
+	}
+	
+	/**
+	 * Retrieves the welder used on the last model file read.
+	 * 
+	 * @return the welder, or null if welding is turned off
+	 */
+	public MeshWelder getMeshWelder() {
+		return welder;
+	}
+	
 	/**
 	 * Read model files in and construct shapes from points and indexes given.
 	 * 
@@ -159,15 +309,70 @@ public class Scene {
 	 * 
 	 */
 	public void readSceneFile(String pointsFilename, String trianglesFilename, Color[] colours) throws Exception {
+		this.volume = readModel(pointsFilename, trianglesFilename, colours, pointList, shapesList);
+		treeOutdated = true;
+		
+		shapes = new Shape[shapesList.size()];
+		for (int i = 0; i < shapesList.size(); i++) {
+			shapes[i] = shapesList.get(i);
+		}
+	}
+	
+	/**
+	 * Read model files in as a mesh that can be placed in the scene any number of times with
+	 * addInstance. The triangles are kept out of the scene's own shape list.
+	 * 
+	 * @param pointsFilename - the points file to read
+	 * @param trianglesFilename - indexed points file to construct the triangles
+	 * @param colours - Colours to render the model
+	 * @return the mesh with its tree built
+	 * @throws Exception - Unable to find the correct file
+	 */
+	public Mesh readMeshFile(String pointsFilename, String trianglesFilename, Color[] colours) throws Exception {
+		ArrayList<Shape> meshShapes = new ArrayList<>();
+		readModel(pointsFilename, trianglesFilename, colours, new ArrayList<Point>(), meshShapes);
+		return new Mesh(meshShapes.toArray(new Shape[meshShapes.size()]));
+	}
+	
+	/**
+	 * Places an instance of a mesh in the scene. The scene tree must be built again to include
+	 * it, but the tree of the mesh is shared and never rebuilt.
+	 * 
+	 * @param mesh - The mesh to place
+	 * @param transform - Object to world space transform of the instance
+	 * @return the instance added to the shape list
+	 */
+	public MeshInstance addInstance(Mesh mesh, Transform transform) {
+		MeshInstance instance = new MeshInstance(mesh, transform);
+		addToShapesList(instance);
+		return instance;
+	}
+	
+	/**
+	 * Reads the points and triangles of a model file into the given lists.
+	 * 
+	 * @param pointsFilename - the points file to read
+	 * @param trianglesFilename - indexed points file to construct the triangles
+	 * @param colours - Colours to render the model
+	 * @param points - List to add the points to
+	 * @param triangles - List to add the triangles to
+	 * @return bounding box of the points read
+	 * @throws Exception - Unable to find the correct file
+	 */
+	private Box readModel(String pointsFilename, String trianglesFilename, Color[] colours, 
+			ArrayList<Point> points, ArrayList<Shape> triangles) throws Exception {
 		File pointsFile = new File(pointsFilename);
 		BufferedReader pointsFileReader = new BufferedReader(new FileReader(pointsFile));
 		double ambient = 0.4;
 		double diffuse = 0.7;
 		double specular = 0.9;
+		// Every triangle of the model shares one material
+		int material = MaterialTable.add(new Material(colours[0], ambient, diffuse, specular));
 		
 		String line;
 		Scanner scanner = null;
 		Point point;
+		ArrayList<Point> modelPoints = new ArrayList<>();
 		double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE, zMin = Double.MAX_VALUE;
 		double xMax = Double.MIN_VALUE, yMax = Double.MIN_VALUE, zMax = Double.MIN_VALUE;
 
@@ -192,16 +397,22 @@ public class Scene {
 				zMax = z;
 			}
 			point = new Point(x,y,z);
-			addToPointList(point);
+			modelPoints.add(point);
 		}
+		points.addAll(modelPoints);
 		
 		Point minimum = new Point(xMin,yMin,zMin);
 		Point maximum = new Point(xMax,yMax,zMax);
 		
 		Box volume = new Box(minimum, maximum);
-		this.volume = volume;
 		pointsFileReader.close();
 		 
+		int remap[] = null;
+		if (welder != null) {
+			welder = new MeshWelder(welder.getTolerance());
+			remap = welder.weld(modelPoints);
+		}
+		 
 		File trianglesFile = new File(trianglesFilename);
 		BufferedReader trianglesFileReader = new BufferedReader(new FileReader(trianglesFile));
 		
@@ -213,20 +424,25 @@ public class Scene {
 			int index1 = scanner.nextInt();
 			int index2 = scanner.nextInt();
 
-			Point v0 = pointList.get(index0);
-			Point v1 = pointList.get(index1);
-			Point v2 = pointList.get(index2);
+			// Skip degenerate and duplicate triangles once vertices are welded
+			if (remap != null) {
+				index0 = remap[index0];
+				index1 = remap[index1];
+				index2 = remap[index2];
+				if (!welder.accept(index0, index1, index2, modelPoints)) {
+					continue;
+				}
+			}
 
-			triangle = new Triangle(v0,v1,v2,colours[0], ambient, diffuse, specular);
-			addToShapesList(triangle);
-		}
-		shapes = new Shape[shapesList.size()];
-		for (int i = 0; i < shapesList.size(); i++) {
-			shapes[i] = shapesList.get(i);
+			Point v0 = modelPoints.get(index0);
+			Point v1 = modelPoints.get(index1);
+			Point v2 = modelPoints.get(index2);
+
+			triangle = new Triangle(v0,v1,v2,material);
+			triangles.add(triangle);
 		}
 		scanner.close();
 		trianglesFileReader.close();
+		return volume;
 	}
-
-	
 }
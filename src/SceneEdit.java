@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+/**
+ * Lists what changed in a scene since the last frame, so only the tiles of the image that 
+ * depended on it are traced again. Shapes are listed after being moved, added or removed, 
+ * lights after being moved, and materials after their entry in the material table is replaced.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class SceneEdit {
+
+	private ArrayList<Shape> shapes = new ArrayList<>();
+	private ArrayList<Light> lights = new ArrayList<>();
+	private ArrayList<Integer> materials = new ArrayList<>();
+	
+	/**
+	 * Adds a shape that was moved, added or removed.
+	 * 
+	 * @param shape - the changed shape
+	 */
+	public void addShape(Shape shape) {
+		shapes.add(shape);
+	}
+	
+	/**
+	 * Adds a light that was moved.
+	 * 
+	 * @param light - the changed light
+	 */
+	public void addLight(Light light) {
+		lights.add(light);
+	}
+	
+	/**
+	 * Adds a material whose entry in the material table was replaced.
+	 * 
+	 * @param materialId - id of the changed material
+	 */
+	public void addMaterial(int materialId) {
+		materials.add(materialId);
+	}
+	
+	/**
+	 * Retrieves the changed shapes.
+	 * 
+	 * @return the shapes
+	 */
+	public ArrayList<Shape> getShapes() {
+		return shapes;
+	}
+	
+	/**
+	 * Retrieves the changed lights.
+	 * 
+	 * @return the lights
+	 */
+	public ArrayList<Light> getLights() {
+		return lights;
+	}
+	
+	/**
+	 * Retrieves the ids of the changed materials.
+	 * 
+	 * @return the material ids
+	 */
+	public ArrayList<Integer> getMaterials() {
+		return materials;
+	}
+}
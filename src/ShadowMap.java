@@ -0,0 +1,325 @@
+import java.util.ArrayList;
+/**
+ * The depth of the nearest shape in every direction around a light, drawn into the six faces
+ * of a cube. Each face only covers the part of it the triangles of the scene project onto, so
+ * a light far from a small model still gives it plenty of texels. A point is in shadow if it
+ * is further from the light than the depth stored in its direction. Neighbouring texels are
+ * compared too and averaged, so shadow edges fade instead of showing the texels. Shapes that
+ * are not triangles are not drawn and are kept to be checked with a shadow ray instead.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class ShadowMap {
+
+	private static final int FACES = 6;
+	// Parts of triangles nearer than this to the light are cut off before drawing
+	private static final double NEAR = 1e-6;
+	// Depth allowed in front of the stored depth before a point counts as shadowed, in texels
+	private static final double DEPTH_BIAS = 1.5;
+	// Distance points are moved off their surface before the lookup, in texels
+	private static final double NORMAL_OFFSET = 1.5;
+	// Texels either side of the lookup compared for filtering
+	private static final int FILTER_RADIUS = 1;
+
+	private final double position[];
+	private final int resolution;
+	private final float inverseDepths[][] = new float[FACES][];
+	// Lowest u and v covered by each face, and the width of the square covered, from -1 to 1
+	private final double windowMin[][] = new double[FACES][2];
+	private final double windowSize[] = new double[FACES];
+	private final Shape tracedShapes[];
+
+	/**
+	 * Draws the shapes of a scene around a light.
+	 *
+	 * @param light - The light to draw the scene from
+	 * @param scene - Scene containing all objects
+	 * @param resolution - Texels along each side of each face of the cube
+	 */
+	public ShadowMap(Light light, Scene scene, int resolution) {
+		if (resolution < 1) {
+			throw new IllegalArgumentException("Shadow maps need at least one texel");
+		}
+		Point lightPosition = light.getPosition();
+		position = new double[] {lightPosition.getX(), lightPosition.getY(), lightPosition.getZ()};
+		this.resolution = resolution;
+		for (int face = 0; face < FACES; face++) {
+			inverseDepths[face] = new float[resolution * resolution];
+		}
+
+		ArrayList<Shape> traced = new ArrayList<>();
+		ArrayList<Triangle> triangles = new ArrayList<>();
+		double min[] = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double max[] = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for (int i = 0; i < scene.getShapesListLength(); i++) {
+			Shape shape = scene.getShapesList(i);
+			if (shape instanceof Triangle) {
+				triangles.add((Triangle) shape);
+				min[0] = Math.min(min[0], shape.getMinX() - position[0]);
+				min[1] = Math.min(min[1], shape.getMinY() - position[1]);
+				min[2] = Math.min(min[2], shape.getMinZ() - position[2]);
+				max[0] = Math.max(max[0], shape.getMaxX() - position[0]);
+				max[1] = Math.max(max[1], shape.getMaxY() - position[1]);
+				max[2] = Math.max(max[2], shape.getMaxZ() - position[2]);
+			} else {
+				traced.add(shape);
+			}
+		}
+		tracedShapes = traced.toArray(new Shape[traced.size()]);
+
+		if (!triangles.isEmpty()) {
+			fitWindows(min, max);
+			for (Triangle triangle : triangles) {
+				draw(triangle);
+			}
+		}
+	}
+
+	/**
+	 * Fits each face to the square around where the box of the triangles projects onto it. 
+	 * Faces the box reaches behind keep the whole face.
+	 *
+	 * @param min - Smallest offset of the triangles from the light along each axis
+	 * @param max - Largest offset of the triangles from the light along each axis
+	 */
+	private void fitWindows(double min[], double max[]) {
+		for (int face = 0; face < FACES; face++) {
+			int axis = face / 2;
+			double sign = face % 2 == 0 ? 1 : -1;
+			double low[] = {1, 1};
+			double high[] = {-1, -1};
+			boolean whole = false;
+			for (int corner = 0; corner < 8; corner++) {
+				double offset[] = new double[3];
+				for (int i = 0; i < 3; i++) {
+					offset[i] = (corner & (1 << i)) == 0 ? min[i] : max[i];
+				}
+				double depth = sign * offset[axis];
+				if (depth <= NEAR) {
+					whole = true;
+					break;
+				}
+				for (int k = 0; k < 2; k++) {
+					double coordinate = Math.max(-1, Math.min(1, offset[(axis + 1 + k) % 3] / depth));
+					low[k] = Math.min(low[k], coordinate);
+					high[k] = Math.max(high[k], coordinate);
+				}
+			}
+
+			double size = Math.max(high[0] - low[0], high[1] - low[1]);
+			if (whole || size <= 0) {
+				windowMin[face][0] = -1;
+				windowMin[face][1] = -1;
+				windowSize[face] = 2;
+			} else {
+				windowMin[face][0] = low[0];
+				windowMin[face][1] = low[1];
+				windowSize[face] = size;
+			}
+		}
+	}
+
+	/**
+	 * Estimates how much of the light reaches a point, as the fraction of nearby texels that
+	 * do not hold anything nearer to the light.
+	 *
+	 * @param point - The point being shaded
+	 * @param normal - Unit normal of the surface at the point, facing the light
+	 * @return the fraction of the light reaching the point, from 0 to 1
+	 */
+	public double visibility(Point point, Vector normal) {
+		double offset[] = {point.getX() - position[0], point.getY() - position[1], point.getZ() - position[2]};
+		int axis = majorAxis(offset);
+		double depth = Math.abs(offset[axis]);
+		if (depth <= NEAR) {
+			return 1;
+		}
+
+		// Move off the surface by about a texel so it does not shadow itself
+		int face = axis * 2 + (offset[axis] < 0 ? 1 : 0);
+		double texel = depth * windowSize[face] / resolution;
+		double normalOffset[] = {normal.getX(), normal.getY(), normal.getZ()};
+		for (int i = 0; i < 3; i++) {
+			offset[i] += normalOffset[i] * NORMAL_OFFSET * texel;
+		}
+		axis = majorAxis(offset);
+		face = axis * 2 + (offset[axis] < 0 ? 1 : 0);
+		depth = Math.abs(offset[axis]);
+		double u = toTexel(face, 0, offset[(axis + 1) % 3] / depth);
+		double v = toTexel(face, 1, offset[(axis + 2) % 3] / depth);
+		int centreX = (int) Math.floor(u);
+		int centreY = (int) Math.floor(v);
+
+		float map[] = inverseDepths[face];
+		double limit = 1 + DEPTH_BIAS * windowSize[face] / resolution;
+		int lit = 0;
+		int compared = 0;
+		for (int y = centreY - FILTER_RADIUS; y <= centreY + FILTER_RADIUS; y++) {
+			for (int x = centreX - FILTER_RADIUS; x <= centreX + FILTER_RADIUS; x++) {
+				if (x < 0 || y < 0 || x >= resolution || y >= resolution) {
+					continue;
+				}
+				compared++;
+				float stored = map[y * resolution + x];
+				// The point is lit if it is no further than the nearest depth drawn there
+				if (stored == 0 || depth * stored <= limit) {
+					lit++;
+				}
+			}
+		}
+		return compared == 0 ? 1 : (double) lit / compared;
+	}
+
+	/**
+	 * Retrieves the shapes that were not drawn into the map, which shadow rays still have to
+	 * be checked against.
+	 *
+	 * @return the shapes that are not triangles
+	 */
+	public Shape[] getTracedShapes() {
+		return tracedShapes;
+	}
+
+	/**
+	 * Estimates the memory used by the faces of the map.
+	 *
+	 * @return size of the map in bytes
+	 */
+	public long getMemoryUsage() {
+		return (long) FACES * resolution * resolution * Float.BYTES;
+	}
+
+	/**
+	 * Draws a triangle into every face of the cube it can be seen through. Each face cuts off
+	 * the part of the triangle behind it first, leaving up to four corners.
+	 *
+	 * @param triangle - The triangle to draw
+	 */
+	private void draw(Triangle triangle) {
+		double corners[][] = {offset(triangle.getV0()), offset(triangle.getV1()), offset(triangle.getV2())};
+		double clipped[][] = new double[4][3];
+
+		for (int face = 0; face < FACES; face++) {
+			int axis = face / 2;
+			double sign = face % 2 == 0 ? 1 : -1;
+
+			// Cut the triangle at the near plane of the face, in depth, u, v coordinates
+			int count = 0;
+			for (int i = 0; i < 3; i++) {
+				double a[] = corners[i];
+				double b[] = corners[(i + 1) % 3];
+				double depthA = sign * a[axis];
+				double depthB = sign * b[axis];
+				if (depthA >= NEAR) {
+					set(clipped[count++], depthA, a[(axis + 1) % 3], a[(axis + 2) % 3]);
+				}
+				if ((depthA >= NEAR) != (depthB >= NEAR)) {
+					double t = (NEAR - depthA) / (depthB - depthA);
+					set(clipped[count++], NEAR, a[(axis + 1) % 3] + t * (b[(axis + 1) % 3] - a[(axis + 1) % 3]),
+							a[(axis + 2) % 3] + t * (b[(axis + 2) % 3] - a[(axis + 2) % 3]));
+				}
+			}
+
+			for (int i = 1; i + 1 < count; i++) {
+				drawFace(face, clipped[0], clipped[i], clipped[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Draws a triangle in front of a face into its texels, keeping the nearest depth at each.
+	 * Depth is interpolated as its inverse, which changes linearly across the face.
+	 *
+	 * @param face - The face to draw into
+	 * @param a - Depth, u and v of the first corner
+	 * @param b - Depth, u and v of the second corner
+	 * @param c - Depth, u and v of the third corner
+	 */
+	private void drawFace(int face, double a[], double b[], double c[]) {
+		float map[] = inverseDepths[face];
+		double ax = toTexel(face, 0, a[1] / a[0]), ay = toTexel(face, 1, a[2] / a[0]);
+		double bx = toTexel(face, 0, b[1] / b[0]), by = toTexel(face, 1, b[2] / b[0]);
+		double cx = toTexel(face, 0, c[1] / c[0]), cy = toTexel(face, 1, c[2] / c[0]);
+		double area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+		if (area == 0) {
+			return;
+		}
+
+		int xStart = Math.max(0, (int) Math.floor(Math.min(ax, Math.min(bx, cx))));
+		int xEnd = Math.min(resolution - 1, (int) Math.ceil(Math.max(ax, Math.max(bx, cx))));
+		int yStart = Math.max(0, (int) Math.floor(Math.min(ay, Math.min(by, cy))));
+		int yEnd = Math.min(resolution - 1, (int) Math.ceil(Math.max(ay, Math.max(by, cy))));
+
+		for (int y = yStart; y <= yEnd; y++) {
+			double centreY = y + 0.5;
+			for (int x = xStart; x <= xEnd; x++) {
+				double centreX = x + 0.5;
+				// Weights of each corner at the centre of the texel, all positive when inside
+				double wa = ((cx - bx) * (centreY - by) - (cy - by) * (centreX - bx)) / area;
+				double wb = ((ax - cx) * (centreY - cy) - (ay - cy) * (centreX - cx)) / area;
+				double wc = 1 - wa - wb;
+				if (wa < 0 || wb < 0 || wc < 0) {
+					continue;
+				}
+
+				float inverseDepth = (float) (wa / a[0] + wb / b[0] + wc / c[0]);
+				int index = y * resolution + x;
+				if (inverseDepth > map[index]) {
+					map[index] = inverseDepth;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the offset of a point from the light.
+	 *
+	 * @param point - The point
+	 * @return the offset along x, y and z
+	 */
+	private double[] offset(Point point) {
+		return new double[] {point.getX() - position[0], point.getY() - position[1], point.getZ() - position[2]};
+	}
+
+	/**
+	 * Turns a coordinate on a face, from -1 to 1, into a texel coordinate.
+	 *
+	 * @param face - The face
+	 * @param direction - 0 for u, 1 for v
+	 * @param coordinate - The coordinate on the face
+	 * @return the texel coordinate, from 0 to the resolution within the part of the face covered
+	 */
+	private double toTexel(int face, int direction, double coordinate) {
+		return (coordinate - windowMin[face][direction]) / windowSize[face] * resolution;
+	}
+
+	/**
+	 * Finds the axis an offset is longest along, which picks the face of the cube it points
+	 * through.
+	 *
+	 * @param offset - Offset along x, y and z
+	 * @return 0 for x, 1 for y, 2 for z
+	 */
+	private static int majorAxis(double offset[]) {
+		double x = Math.abs(offset[0]), y = Math.abs(offset[1]), z = Math.abs(offset[2]);
+		if (x >= y && x >= z) {
+			return 0;
+		}
+		return y >= z ? 1 : 2;
+	}
+
+	/**
+	 * Sets the three values of a corner.
+	 *
+	 * @param corner - The corner to set
+	 * @param depth - Depth in front of the face
+	 * @param u - First coordinate across the face
+	 * @param v - Second coordinate across the face
+	 */
+	private static void set(double corner[], double depth, double u, double v) {
+		corner[0] = depth;
+		corner[1] = u;
+		corner[2] = v;
+	}
+}
@@ -1,4 +1,5 @@
 import java.awt.Color;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An abstract class to represent a base model for all shapes within the scene.
@@ -7,10 +8,9 @@ import java.awt.Color;
  *
  */
 public abstract class Shape {
-	protected Color colour;
-	protected double ambient;
-	protected double specular;
-	protected double diffuse;
+	private static final AtomicInteger shapeCount = new AtomicInteger();
+	private final int id = shapeCount.getAndIncrement();
+	protected int materialId;
 	protected Point mid;
 	protected double xMin, yMin, zMin;
 	protected double xMax, yMax, zMax;
@@ -24,10 +24,34 @@ public abstract class Shape {
 	 * @param specular - The specular reflection of the shape
 	 */
 	public Shape(Color colour, double ambient, double diffuse, double specular) {
-		this.colour = colour;
-		this.ambient = ambient;
-		this.diffuse = diffuse;
-		this.specular = specular;
+		this(MaterialTable.add(new Material(colour, ambient, diffuse, specular)));
+	}
+	
+	/**
+	 * Constructs a general shape object using an entry of the material table.
+	 * 
+	 * @param materialId - id of the material of the shape
+	 */
+	public Shape(int materialId) {
+		this.materialId = materialId;
+	}
+	
+	/**
+	 * Retrieves the unique number given to the shape when it was constructed.
+	 * 
+	 * @return the id of the shape
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * Retrieves the number of shapes constructed so far, one more than the largest id.
+	 * 
+	 * @return the number of shapes
+	 */
+	public static int getShapeCount() {
+		return shapeCount.get();
 	}
 	
 	/**
@@ -41,22 +65,69 @@ public abstract class Shape {
 		return -1;
 	}
 	
+	/**
+	 * Checks if the shape has a finite bounding box. Shapes without one are kept out of the 
+	 * tree and checked by every ray.
+	 * 
+	 * @return true if the min and max coordinates surround the shape
+	 * 		   false if the shape is infinite
+	 */
+	public boolean isBounded() {
+		return true;
+	}
+	
+	/**
+	 * Moves the shape through the scene. Every shape has to be movable so scenes can be 
+	 * updated without rebuilding the tree.
+	 * 
+	 * @param offset - Distance and direction to move the shape
+	 */
+	public abstract void translate(Vector offset);
+	
+	/**
+	 * Retrieves the id of the material of the shape.
+	 * 
+	 * @return the material id
+	 */
+	public int getMaterialId() {
+		return materialId;
+	}
+	
+	/**
+	 * Changes the material of the shape to another entry of the material table.
+	 * 
+	 * @param materialId - id of the new material
+	 */
+	public void setMaterialId(int materialId) {
+		this.materialId = materialId;
+	}
+	
+	/**
+	 * Retrieves the material of the shape.
+	 * 
+	 * @return the material of the shape
+	 */
+	public Material getMaterial() {
+		return MaterialTable.get(materialId);
+	}
+	
 	/**
 	 * Retrieves the colour of the shape.
 	 * 
 	 * @return the colour of the shape
 	 */
 	public Color getColour() {
-		return colour;
+		return getMaterial().getColour();
 	}
 	
 	/**
-	 * Alters the colour of the current shape.
+	 * Alters the colour of the current shape. The shape is given its own material so other 
+	 * shapes sharing its current material keep their colour.
 	 * 
 	 * @param colour - New colour of the shape
 	 */
 	public void alterColour(Color colour) {
-		this.colour = colour;
+		materialId = MaterialTable.add(getMaterial().withColour(colour));
 	}
 	
 	/**
@@ -68,13 +139,44 @@ public abstract class Shape {
 		return null;
 	}
 	
+	/**
+	 * Retrieves the normal where a ray hit the shape. The ray must hold the distance of the 
+	 * hit, as left by the intersection query that found the shape.
+	 * 
+	 * @param ray - The ray that hit the shape
+	 * @return the normal at the hit
+	 */
+	public Vector getNormal(Ray ray) {
+		return getNormal();
+	}
+	
+	/**
+	 * Retrieves the id of the material where a ray hit the shape.
+	 * 
+	 * @param ray - The ray that hit the shape
+	 * @return the material id at the hit
+	 */
+	public int getMaterialId(Ray ray) {
+		return getMaterialId();
+	}
+	
+	/**
+	 * Retrieves the material where a ray hit the shape.
+	 * 
+	 * @param ray - The ray that hit the shape
+	 * @return the material at the hit
+	 */
+	public Material getMaterial(Ray ray) {
+		return MaterialTable.get(getMaterialId(ray));
+	}
+	
 	/**
 	 * Retrieves the ambient intensity of the shape.
 	 * 
 	 * @return ambient intensity
 	 */
 	public double getAmbient() {
-		return ambient;
+		return getMaterial().getAmbient();
 	}
 	
 	/**
@@ -83,7 +185,7 @@ public abstract class Shape {
 	 * @return diffuse intensity
 	 */
 	public double getDiffuse() {
-		return diffuse;
+		return getMaterial().getDiffuse();
 	}
 	
 	/**
@@ -92,7 +194,7 @@ public abstract class Shape {
 	 * @return specular intensity
 	 */
 	public double getSpecular() {
-		return specular;
+		return getMaterial().getSpecular();
 	}
 	
 	/**
@@ -10,7 +10,6 @@ public class Sphere extends Shape{
 
 	private Point centre;
 	private double radius;
-	private Vector normal;
 	
 	/**
 	 * Constructs a sphere with a centre and radius, and sets the minimum and 
@@ -27,6 +26,7 @@ public class Sphere extends Shape{
 		super(colour, ambient, diffuse, specular);
 		this.centre = centre;
 		this.radius = radius;
+		setMidPoint(centre);
 		
 		setMinX();
 		setMinY();
@@ -37,8 +37,22 @@ public class Sphere extends Shape{
 	}
 
 	@Override
-	public Vector getNormal() {
-		return normal;
+	public Vector getNormal(Ray ray) {
+		// Worked out from the hit so nothing is kept on the sphere between rays
+		return new Vector(centre, ray.getIntersectionPoint()).normalise();
+	}
+	
+	@Override
+	public void translate(Vector offset) {
+		centre = centre.add(offset);
+		setMidPoint(centre);
+		
+		setMinX();
+		setMinY();
+		setMinZ();
+		setMaxX();
+		setMaxY();
+		setMaxZ();
 	}
 	
 	@Override
@@ -77,11 +91,9 @@ public class Sphere extends Shape{
 		} else if (t1 > 0 && t2 > 0) {
 			if (t1 <= t2) {
 				ray.setDistance(t1);
-				setNormalUsing(ray);
 				return t1;
 			} else { 
 				ray.setDistance(t2);
-				setNormalUsing(ray);
 				return t2;
 			}
 		} else {
@@ -89,16 +101,6 @@ public class Sphere extends Shape{
 		}
 	}
 	
-	/**
-	 * Calculates the normal at the intersection point on the sphere.
-	 * 
-	 * @param ray - the casted ray into the scene
-	 */
-	private void setNormalUsing(Ray ray) {
-		Point intersectionPoint = ray.getIntersectionPoint();
-		normal = new Vector(centre, intersectionPoint).normalise();
-	}
-	
 	/**
 	 * Sets the max x coordinate of the sphere.
 	 */
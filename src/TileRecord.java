@@ -0,0 +1,324 @@
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+/**
+ * Remembers what a tile of the image depended on when it was last traced: the shapes its rays 
+ * hit or were blocked by, the materials shaded, the lights that reached it and the box around 
+ * every point shaded. After the scene is edited only tiles that could have changed need to be 
+ * traced again. Each thread records into the tile it is currently tracing.
+ * 
+ * @author Oliver Jefford
+ *
+ */
+public class TileRecord {
+
+	private static final ThreadLocal<TileRecord> CURRENT = new ThreadLocal<TileRecord>();
+	
+	private int x;
+	private int y;
+	private int width;
+	private int height;
+	private HashSet<Integer> shapes = new HashSet<>();
+	private HashSet<Integer> materials = new HashSet<>();
+	private Set<Light> lights = Collections.newSetFromMap(new IdentityHashMap<Light, Boolean>());
+	private double min[] = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+	private double max[] = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+	private boolean reflective;
+	
+	/**
+	 * Constructs an empty record for a tile of the image.
+	 * 
+	 * @param x - Pixel x of the top left corner
+	 * @param y - Pixel y of the top left corner
+	 * @param width - Width of the tile in pixels
+	 * @param height - Height of the tile in pixels
+	 */
+	public TileRecord(int x, int y, int width, int height) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+	
+	/**
+	 * Starts recording into a tile on the current thread, forgetting what it recorded before.
+	 * 
+	 * @param record - the record of the tile about to be traced, or null to record nothing
+	 */
+	public static void begin(TileRecord record) {
+		if (record != null) {
+			record.clear();
+		}
+		CURRENT.set(record);
+	}
+	
+	/**
+	 * Stops recording on the current thread.
+	 */
+	public static void end() {
+		CURRENT.remove();
+	}
+	
+	/**
+	 * Retrieves the record being written by the current thread.
+	 * 
+	 * @return the record of the tile being traced, or null if nothing is being recorded
+	 */
+	public static TileRecord current() {
+		return CURRENT.get();
+	}
+	
+	/**
+	 * Forgets everything recorded for the tile.
+	 */
+	private void clear() {
+		shapes.clear();
+		materials.clear();
+		lights.clear();
+		for (int axis = 0; axis < 3; axis++) {
+			min[axis] = Double.MAX_VALUE;
+			max[axis] = -Double.MAX_VALUE;
+		}
+		reflective = false;
+	}
+	
+	/**
+	 * Records a shape hit by a ray of the tile or blocking one of its shadow rays.
+	 * 
+	 * @param shape - the shape
+	 */
+	public void addShape(Shape shape) {
+		addShape(shape.getId());
+	}
+	
+	/**
+	 * Records a shape by its id, for hits read back from a G-buffer.
+	 * 
+	 * @param shapeId - id of the shape
+	 */
+	public void addShape(int shapeId) {
+		shapes.add(shapeId);
+	}
+	
+	/**
+	 * Records a material shaded in the tile.
+	 * 
+	 * @param materialId - id of the material
+	 */
+	public void addMaterial(int materialId) {
+		materials.add(materialId);
+	}
+	
+	/**
+	 * Records a light close enough to light a point of the tile.
+	 * 
+	 * @param light - the light
+	 */
+	public void addLight(Light light) {
+		lights.add(light);
+	}
+	
+	/**
+	 * Records a point shaded in the tile, growing the box around all shaded points.
+	 * 
+	 * @param point - the point
+	 */
+	public void addPoint(Point point) {
+		double p[] = {point.getX(), point.getY(), point.getZ()};
+		for (int axis = 0; axis < 3; axis++) {
+			min[axis] = Math.min(min[axis], p[axis]);
+			max[axis] = Math.max(max[axis], p[axis]);
+		}
+	}
+	
+	/**
+	 * Records that a ray of the tile was reflected, so any shape could appear in the tile.
+	 */
+	public void setReflective() {
+		reflective = true;
+	}
+	
+	/**
+	 * Checks if a shape was hit by, or blocked, a ray of the tile.
+	 * 
+	 * @param shape - the shape
+	 * @return true if the tile depended on the shape
+	 */
+	public boolean hasShape(Shape shape) {
+		return shapes.contains(shape.getId());
+	}
+	
+	/**
+	 * Checks if a material was shaded in the tile.
+	 * 
+	 * @param materialId - id of the material
+	 * @return true if the tile depended on the material
+	 */
+	public boolean hasMaterial(int materialId) {
+		return materials.contains(materialId);
+	}
+	
+	/**
+	 * Checks if a light lit any point of the tile.
+	 * 
+	 * @param light - the light
+	 * @return true if the tile depended on the light
+	 */
+	public boolean hasLight(Light light) {
+		return lights.contains(light);
+	}
+	
+	/**
+	 * Retrieves every light that lit a point of the tile.
+	 * 
+	 * @return the lights of the tile
+	 */
+	public Set<Light> getLights() {
+		return lights;
+	}
+	
+	/**
+	 * Checks if any ray of the tile was reflected.
+	 * 
+	 * @return true if the tile fired reflected rays
+	 */
+	public boolean isReflective() {
+		return reflective;
+	}
+	
+	/**
+	 * Calculates the distance from the box around the shaded points to a point.
+	 * 
+	 * @param point - the point
+	 * @return the shortest distance, or infinity if nothing in the tile was shaded
+	 */
+	public double distanceTo(Point point) {
+		if (min[0] > max[0]) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double p[] = {point.getX(), point.getY(), point.getZ()};
+		double distanceSquared = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			double outside = Math.max(min[axis] - p[axis], Math.max(0, p[axis] - max[axis]));
+			distanceSquared += outside * outside;
+		}
+		return Math.sqrt(distanceSquared);
+	}
+	
+	/**
+	 * Checks if a shape comes within a distance of the box around the shaded points, close 
+	 * enough to block their occlusion rays.
+	 * 
+	 * @param shape - the shape
+	 * @param distance - the furthest an occlusion ray reaches
+	 * @return true if the shape is within the distance
+	 */
+	public boolean isWithin(Shape shape, double distance) {
+		if (min[0] > max[0]) {
+			return false;
+		}
+		return shape.getMaxX() >= min[0] - distance && shape.getMinX() <= max[0] + distance
+				&& shape.getMaxY() >= min[1] - distance && shape.getMinY() <= max[1] + distance
+				&& shape.getMaxZ() >= min[2] - distance && shape.getMinZ() <= max[2] + distance;
+	}
+	
+	/**
+	 * Checks if a shape could block the shadow rays from the tile to a light. Every shadow ray 
+	 * lies within the hull of the box around the shaded points and the light. The hull is made 
+	 * of copies of the box shrunk towards the light by a factor t from 0 to 1, so the shape can 
+	 * only block a ray if its box overlaps one of the copies for some t.
+	 * 
+	 * @param light - the light the shadow rays point at
+	 * @param shape - the shape
+	 * @return true if the shape could block a shadow ray of the tile
+	 */
+	public boolean couldShadow(Light light, Shape shape) {
+		if (min[0] > max[0]) {
+			return false;
+		}
+		Point position = light.getPosition();
+		double shapeMin[] = {shape.getMinX(), shape.getMinY(), shape.getMinZ()};
+		double shapeMax[] = {shape.getMaxX(), shape.getMaxY(), shape.getMaxZ()};
+		double p[] = {position.getX(), position.getY(), position.getZ()};
+		
+		double tRange[] = {0, 1};
+		for (int axis = 0; axis < 3; axis++) {
+			// The copy spans min + t(p - min) to max + t(p - max) on this axis
+			if (!limit(tRange, min[axis], p[axis] - min[axis], shapeMax[axis])
+					|| !limit(tRange, -max[axis], max[axis] - p[axis], -shapeMin[axis])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Narrows a range of t to where a + bt is at most c.
+	 * 
+	 * @param tRange - smallest and largest t, narrowed in place
+	 * @param a - value at t = 0
+	 * @param b - change per unit of t
+	 * @param c - the limit
+	 * @return false if no t in the range is left
+	 */
+	private static boolean limit(double tRange[], double a, double b, double c) {
+		if (b > 0) {
+			tRange[1] = Math.min(tRange[1], (c - a) / b);
+		} else if (b < 0) {
+			tRange[0] = Math.max(tRange[0], (c - a) / b);
+		} else if (a > c) {
+			return false;
+		}
+		return tRange[0] <= tRange[1];
+	}
+	
+	/**
+	 * Checks if the tile covers any pixel of a rectangle.
+	 * 
+	 * @param x0 - Smallest pixel x of the rectangle
+	 * @param y0 - Smallest pixel y of the rectangle
+	 * @param x1 - Largest pixel x of the rectangle
+	 * @param y1 - Largest pixel y of the rectangle
+	 * @return true if the tile and rectangle overlap
+	 */
+	public boolean overlapsPixels(int x0, int y0, int x1, int y1) {
+		return x0 < x + width && x1 >= x && y0 < y + height && y1 >= y;
+	}
+	
+	/**
+	 * Retrieves the pixel x of the top left corner.
+	 * 
+	 * @return the left edge of the tile
+	 */
+	public int getX() {
+		return x;
+	}
+	
+	/**
+	 * Retrieves the pixel y of the top left corner.
+	 * 
+	 * @return the top edge of the tile
+	 */
+	public int getY() {
+		return y;
+	}
+	
+	/**
+	 * Retrieves the width of the tile.
+	 * 
+	 * @return the width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Retrieves the height of the tile.
+	 * 
+	 * @return the height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ * An affine transformation used to place a mesh instance within the scene. Stored as the top
+ * three rows of a 4x4 matrix, with the inverse kept alongside to move rays into object space.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class Transform {
+
+	private double matrix[];
+	private double inverse[];
+
+	/**
+	 * Constructs a transform from the top three rows of a 4x4 matrix, written row by row.
+	 *
+	 * @param matrix - 12 values of the matrix
+	 */
+	public Transform(double matrix[]) {
+		this.matrix = matrix.clone();
+		inverse = invert(this.matrix);
+	}
+
+	/**
+	 * Creates a transform that leaves every point where it is.
+	 *
+	 * @return the identity transform
+	 */
+	public static Transform identity() {
+		return new Transform(new double[] {1, 0, 0, 0,
+										   0, 1, 0, 0,
+										   0, 0, 1, 0});
+	}
+
+	/**
+	 * Creates a transform that moves every point by an offset.
+	 *
+	 * @param x - Offset on the x axis
+	 * @param y - Offset on the y axis
+	 * @param z - Offset on the z axis
+	 * @return the translation
+	 */
+	public static Transform translation(double x, double y, double z) {
+		return new Transform(new double[] {1, 0, 0, x,
+										   0, 1, 0, y,
+										   0, 0, 1, z});
+	}
+
+	/**
+	 * Creates a transform that scales every point about the origin.
+	 *
+	 * @param x - Scale on the x axis
+	 * @param y - Scale on the y axis
+	 * @param z - Scale on the z axis
+	 * @return the scale
+	 */
+	public static Transform scale(double x, double y, double z) {
+		return new Transform(new double[] {x, 0, 0, 0,
+										   0, y, 0, 0,
+										   0, 0, z, 0});
+	}
+
+	/**
+	 * Creates a transform that rotates every point around the y axis.
+	 *
+	 * @param degrees - Angle of the rotation
+	 * @return the rotation
+	 */
+	public static Transform rotationY(double degrees) {
+		double cos = Math.cos(Math.toRadians(degrees));
+		double sin = Math.sin(Math.toRadians(degrees));
+		return new Transform(new double[] {cos,  0, sin, 0,
+										   0,    1, 0,   0,
+										   -sin, 0, cos, 0});
+	}
+
+	/**
+	 * Combines two transforms. The other transform is applied first, then this one.
+	 *
+	 * @param other - Transform to apply first
+	 * @return the combined transform
+	 */
+	public Transform times(Transform other) {
+		double a[] = matrix;
+		double b[] = other.matrix;
+		double result[] = new double[12];
+		for (int row = 0; row < 3; row++) {
+			for (int column = 0; column < 4; column++) {
+				double value = a[row * 4] * b[column] + a[row * 4 + 1] * b[4 + column] + a[row * 4 + 2] * b[8 + column];
+				if (column == 3) {
+					value += a[row * 4 + 3];
+				}
+				result[row * 4 + column] = value;
+			}
+		}
+		return new Transform(result);
+	}
+
+	/**
+	 * Moves a point from object space into world space.
+	 *
+	 * @param point - Point in object space
+	 * @return the point in world space
+	 */
+	public Point applyTo(Point point) {
+		return transformPoint(matrix, point);
+	}
+
+	/**
+	 * Moves a point from world space into object space.
+	 *
+	 * @param point - Point in world space
+	 * @return the point in object space
+	 */
+	public Point applyInverseTo(Point point) {
+		return transformPoint(inverse, point);
+	}
+
+	/**
+	 * Moves a direction from object space into world space. Ignores the translation.
+	 *
+	 * @param vector - Direction in object space
+	 * @return the direction in world space
+	 */
+	public Vector applyTo(Vector vector) {
+		return transformVector(matrix, vector);
+	}
+
+	/**
+	 * Moves a direction from world space into object space. Ignores the translation.
+	 * The result is not normalised, so distances along a ray stay the same in both spaces.
+	 *
+	 * @param vector - Direction in world space
+	 * @return the direction in object space
+	 */
+	public Vector applyInverseTo(Vector vector) {
+		return transformVector(inverse, vector);
+	}
+
+	/**
+	 * Moves a surface normal from object space into world space using the inverse transpose,
+	 * so normals stay perpendicular under non-uniform scaling.
+	 *
+	 * @param normal - Normal in object space
+	 * @return the unit normal in world space
+	 */
+	public Vector applyToNormal(Vector normal) {
+		double x = inverse[0] * normal.getX() + inverse[4] * normal.getY() + inverse[8] * normal.getZ();
+		double y = inverse[1] * normal.getX() + inverse[5] * normal.getY() + inverse[9] * normal.getZ();
+		double z = inverse[2] * normal.getX() + inverse[6] * normal.getY() + inverse[10] * normal.getZ();
+		return new Vector(x, y, z).normalise();
+	}
+
+	/**
+	 * Finds the box in world space surrounding a box in object space, by transforming all
+	 * eight corners.
+	 *
+	 * @param volume - Bounding box in object space
+	 * @return bounding box in world space
+	 */
+	public Box applyTo(Box volume) {
+		Point min = volume.getMin();
+		Point max = volume.getMax();
+		double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE, zMin = Double.MAX_VALUE;
+		double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE, zMax = -Double.MAX_VALUE;
+
+		for (int i = 0; i < 8; i++) {
+			Point corner = new Point((i & 1) == 0 ? min.getX() : max.getX(),
+									 (i & 2) == 0 ? min.getY() : max.getY(),
+									 (i & 4) == 0 ? min.getZ() : max.getZ());
+			Point world = applyTo(corner);
+			xMin = Math.min(xMin, world.getX());
+			yMin = Math.min(yMin, world.getY());
+			zMin = Math.min(zMin, world.getZ());
+			xMax = Math.max(xMax, world.getX());
+			yMax = Math.max(yMax, world.getY());
+			zMax = Math.max(zMax, world.getZ());
+		}
+		return new Box(new Point(xMin, yMin, zMin), new Point(xMax, yMax, zMax));
+	}
+
+	/**
+	 * Multiplies a point by a matrix, including the translation.
+	 *
+	 * @param m - Matrix to apply
+	 * @param point - Point to transform
+	 * @return the transformed point
+	 */
+	private static Point transformPoint(double m[], Point point) {
+		double x = m[0] * point.getX() + m[1] * point.getY() + m[2] * point.getZ() + m[3];
+		double y = m[4] * point.getX() + m[5] * point.getY() + m[6] * point.getZ() + m[7];
+		double z = m[8] * point.getX() + m[9] * point.getY() + m[10] * point.getZ() + m[11];
+		return new Point(x, y, z);
+	}
+
+	/**
+	 * Multiplies a direction by a matrix, leaving out the translation.
+	 *
+	 * @param m - Matrix to apply
+	 * @param vector - Direction to transform
+	 * @return the transformed direction
+	 */
+	private static Vector transformVector(double m[], Vector vector) {
+		double x = m[0] * vector.getX() + m[1] * vector.getY() + m[2] * vector.getZ();
+		double y = m[4] * vector.getX() + m[5] * vector.getY() + m[6] * vector.getZ();
+		double z = m[8] * vector.getX() + m[9] * vector.getY() + m[10] * vector.getZ();
+		return new Vector(x, y, z);
+	}
+
+	/**
+	 * Inverts an affine matrix by inverting the 3x3 part and moving the translation back.
+	 *
+	 * @param m - Matrix to invert
+	 * @return the inverted matrix
+	 */
+	private static double[] invert(double m[]) {
+		double a = m[0], b = m[1], c = m[2];
+		double d = m[4], e = m[5], f = m[6];
+		double g = m[8], h = m[9], i = m[10];
+
+		double determinant = a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+		if (Math.abs(determinant) < 1e-12) {
+			throw new IllegalArgumentException("Transform cannot be inverted");
+		}
+		double inv = 1.0 / determinant;
+
+		double result[] = new double[12];
+		result[0] = (e * i - f * h) * inv;
+		result[1] = (c * h - b * i) * inv;
+		result[2] = (b * f - c * e) * inv;
+		result[4] = (f * g - d * i) * inv;
+		result[5] = (a * i - c * g) * inv;
+		result[6] = (c * d - a * f) * inv;
+		result[8] = (d * h - e * g) * inv;
+		result[9] = (b * g - a * h) * inv;
+		result[10] = (a * e - b * d) * inv;
+
+		// Translation of the inverse is -R^-1 * t
+		result[3] = -(result[0] * m[3] + result[1] * m[7] + result[2] * m[11]);
+		result[7] = -(result[4] * m[3] + result[5] * m[7] + result[6] * m[11]);
+		result[11] = -(result[8] * m[3] + result[9] * m[7] + result[10] * m[11]);
+		return result;
+	}
+}
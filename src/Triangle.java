@@ -27,7 +27,19 @@ public class Triangle extends Shape {
 	 * @param specular - The specular reflectivity of the surface
 	 */
 	public Triangle(Point v0, Point v1, Point v2, Color colour, double ambient, double diffuse, double specular) {
-		super(colour, ambient, diffuse, specular);
+		this(v0, v1, v2, MaterialTable.add(new Material(colour, ambient, diffuse, specular)));
+	}
+	
+	/**
+	 * Constructs a triangle object using an entry of the material table.
+	 * 
+	 * @param v0 - Point one on the triangle
+	 * @param v1 - Point two on the triangle
+	 * @param v2 - Point three on the triangle
+	 * @param materialId - id of the material of the triangle
+	 */
+	public Triangle(Point v0, Point v1, Point v2, int materialId) {
+		super(materialId);
 		this.v0 = v0;
 		this.v1 = v1;
 		this.v2 = v2;
@@ -83,6 +95,21 @@ public class Triangle extends Shape {
 		return t;
 	}
 	
+	@Override
+	public void translate(Vector offset) {
+		v0 = v0.add(offset);
+		v1 = v1.add(offset);
+		v2 = v2.add(offset);
+		setMidPoint(v0, v1, v2);
+		
+		setMinX();
+		setMinY();
+		setMinZ();
+		setMaxX();
+		setMaxY();
+		setMaxZ();
+	}
+	
 	@Override
 	public Vector getNormal() {
 		return normal.normalise();
@@ -108,6 +135,33 @@ public class Triangle extends Shape {
 		return mid;
 	}
 	
+	/**
+	 * Retrieves the first vertex of the triangle.
+	 * 
+	 * @return vertex v0
+	 */
+	public Point getV0() {
+		return v0;
+	}
+	
+	/**
+	 * Retrieves the second vertex of the triangle.
+	 * 
+	 * @return vertex v1
+	 */
+	public Point getV1() {
+		return v1;
+	}
+	
+	/**
+	 * Retrieves the third vertex of the triangle.
+	 * 
+	 * @return vertex v2
+	 */
+	public Point getV2() {
+		return v2;
+	}
+	
 	/**
 	 * Sets the min x coordinate value.
 	 */
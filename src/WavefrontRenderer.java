@@ -0,0 +1,502 @@
+import java.awt.Color;
+import java.util.Arrays;
+/**
+ * Traces a tile of rays in stages instead of following each ray to the end before starting
+ * the next. Every ray of the tile is traced through the tree, then every hit is shaded, then
+ * every shadow ray is fired, and any reflected rays form the next wave. Each stage is a loop
+ * over the paths waiting in its queue, so the code and data of one stage stay in cache while
+ * it runs. Each thread uses its own renderer.
+ *
+ * Paths and shadow rays are held in flat arrays of coordinates and ids, like RayBuffer, which
+ * are only grown and are reused by every wave and tile. The tree and the shading methods of
+ * Image still take Ray, Point and Vector objects, so those are made where they are called and
+ * dropped straight away rather than kept in the queues.
+ *
+ * @author Oliver Jefford
+ *
+ */
+public class WavefrontRenderer {
+
+	private final Image image;
+	private final Scene scene;
+	private final KDTree tree;
+	private final GBuffer gBuffer;
+	private final int maxDepth;
+	private final boolean shadows;
+	private final int secondaryRayBudget;
+	private final boolean raySorting;
+	// Cells along each side of the grid used to sort reflected rays by where they start
+	private static final int SORT_CELLS = 1 << 9;
+
+	// One path per camera ray, holding the ray it is waiting on and what it has found so far
+	private double originX[] = new double[0];
+	private double originY[] = new double[0];
+	private double originZ[] = new double[0];
+	private double directionX[] = new double[0];
+	private double directionY[] = new double[0];
+	private double directionZ[] = new double[0];
+	private double throughputs[] = new double[0];
+	private RayBudget budgets[] = new RayBudget[0];
+	private int depths[] = new int[0];
+	private int pixels[] = new int[0];
+	// Where the ray of each path hit, and the normal and material there
+	private double pointX[] = new double[0];
+	private double pointY[] = new double[0];
+	private double pointZ[] = new double[0];
+	private double normalX[] = new double[0];
+	private double normalY[] = new double[0];
+	private double normalZ[] = new double[0];
+	private int materialIds[] = new int[0];
+	private double ambient[] = new double[0];
+	private double lighting[] = new double[0];
+	private Color fallbacks[] = new Color[0];
+	private Color results[] = new Color[0];
+	// Phong values of the reflective surfaces along each path, applied once the path ends
+	private double phongs[] = new double[0];
+	private int phongCounts[] = new int[0];
+
+	// Paths waiting to be traced, and the hits waiting to be shaded
+	private int active[] = new int[0];
+	private int activeCount;
+	private int hits[] = new int[0];
+	private int hitCount;
+	// Sort key of each waiting path in the high bits and the path in the low bits
+	private long sortKeys[] = new long[0];
+
+	// Shadow rays waiting to be fired
+	private int shadowPaths[] = new int[0];
+	private Light shadowLights[] = new Light[0];
+	private double shadowOriginX[] = new double[0];
+	private double shadowOriginY[] = new double[0];
+	private double shadowOriginZ[] = new double[0];
+	private double shadowDirectionX[] = new double[0];
+	private double shadowDirectionY[] = new double[0];
+	private double shadowDirectionZ[] = new double[0];
+	private double shadowDistances[] = new double[0];
+	private double shadowContributions[] = new double[0];
+	private int shadowCount;
+
+	// Nodes the camera rays of the tile being traced start from
+	private Node entries[];
+	// True if the last tile ran out of time and its paths were ended early
+	private boolean cutShort;
+	// Lights picked for the point being shaded
+	private final LightSelection selection = new LightSelection();
+
+	/**
+	 * Constructs a renderer for one frame of an image.
+	 *
+	 * @param image - The image being traced, which supplies the shading
+	 * @param scene - Scene containing all objects
+	 * @param tree - Acceleration structure to allow fast traversal for efficiency
+	 * @param gBuffer - G-buffer to store the primary hits into, or null
+	 * @param maxDepth - Most rays along a path, counting the camera ray
+	 * @param shadows - true to fire shadow rays
+	 * @param secondaryRayBudget - Reflection rays allowed per pixel, or 0 for no limit
+	 * @param raySorting - true to sort each wave of reflected rays before tracing it
+	 */
+	public WavefrontRenderer(Image image, Scene scene, KDTree tree, GBuffer gBuffer,
+			int maxDepth, boolean shadows, int secondaryRayBudget, boolean raySorting) {
+		this.image = image;
+		this.scene = scene;
+		this.tree = tree;
+		this.gBuffer = gBuffer;
+		this.maxDepth = maxDepth;
+		this.shadows = shadows;
+		this.secondaryRayBudget = secondaryRayBudget;
+		this.raySorting = raySorting;
+	}
+
+	/**
+	 * Traces every ray of a tile and works out the colour of each pixel.
+	 *
+	 * @param tile - The tile being traced
+	 * @param order - The pixels of the tile in the order their rays were written
+	 * @param buffer - The camera rays of the tile, GBuffer.SAMPLES for each pixel
+	 * @param origin - Origin shared by every camera ray
+	 * @param entries - Nodes of the tree the tile can reach, or null to start camera rays from the root
+	 * @return the colour of each pixel, in the same order as the pixels
+	 */
+	public Color[] render(TileRecord tile, int order[], RayBuffer buffer, Point origin, Node entries[]) {
+		int count = order.length * GBuffer.SAMPLES;
+		prepare(count);
+
+		activeCount = 0;
+		for (int pixel = 0; pixel < order.length; pixel++) {
+			// All rays of the pixel share one budget of reflection rays
+			RayBudget budget = secondaryRayBudget > 0 ? new RayBudget(secondaryRayBudget) : null;
+			int x = tile.getX() + order[pixel] % tile.getWidth();
+			int y = tile.getY() + order[pixel] / tile.getWidth();
+			for (int sample = 0; sample < GBuffer.SAMPLES; sample++) {
+				int path = pixel * GBuffer.SAMPLES + sample;
+				originX[path] = origin.getX();
+				originY[path] = origin.getY();
+				originZ[path] = origin.getZ();
+				directionX[path] = buffer.directionX[path];
+				directionY[path] = buffer.directionY[path];
+				directionZ[path] = buffer.directionZ[path];
+				throughputs[path] = 1;
+				budgets[path] = budget;
+				depths[path] = 0;
+				pixels[path] = gBuffer == null ? -1 : gBuffer.index(x, y, sample);
+				phongCounts[path] = 0;
+				active[activeCount++] = path;
+			}
+		}
+
+		this.entries = entries;
+		cutShort = false;
+		boolean secondary = false;
+		while (activeCount > 0) {
+			if (secondary && image.isPastDeadline()) {
+				// Out of time, so the waiting paths keep what they found without their reflections
+				for (int i = 0; i < activeCount; i++) {
+					finish(active[i], fallbacks[active[i]]);
+				}
+				activeCount = 0;
+				cutShort = true;
+				break;
+			}
+			if (secondary) {
+				long start = System.nanoTime();
+				if (raySorting) {
+					sortActive();
+				}
+				long sorted = System.nanoTime();
+				extend();
+				RenderStats.raySortTime.add(sorted - start);
+				RenderStats.secondaryTraversalTime.add(System.nanoTime() - sorted);
+			} else {
+				extend();
+			}
+			secondary = true;
+			shade();
+			fireShadowRays();
+			resolve();
+		}
+
+		Color colours[] = new Color[order.length];
+		for (int pixel = 0; pixel < order.length; pixel++) {
+			int path = pixel * GBuffer.SAMPLES;
+			colours[pixel] = image.getPixelIntensity(results[path], results[path + 1], results[path + 2], results[path + 3]);
+		}
+		return colours;
+	}
+
+	/**
+	 * Checks if the last tile ran out of time before every path reached its full depth.
+	 *
+	 * @return true if some paths of the last tile were ended early
+	 */
+	public boolean wasCutShort() {
+		return cutShort;
+	}
+
+	/**
+	 * Traces every waiting ray through the tree. Rays that hit are queued to be shaded, and
+	 * paths whose ray misses end here. Camera rays are in pixel order, so each checks the last 
+	 * shape hit by an earlier ray of its pixel first.
+	 */
+	private void extend() {
+		hitCount = 0;
+		Shape pixelHit = null;
+		for (int i = 0; i < activeCount; i++) {
+			int path = active[i];
+			Ray ray = toRay(path);
+			Shape shape;
+			if (depths[path] == 0) {
+				if (path % GBuffer.SAMPLES == 0) {
+					pixelHit = null;
+				}
+				shape = entries != null ? tree.findShapeWith(ray, entries, pixelHit) : tree.findShapeWith(ray, pixelHit);
+				if (shape != null) {
+					pixelHit = shape;
+				}
+			} else {
+				shape = tree.findShapeWith(ray);
+			}
+			if (shape == null) {
+				if (depths[path] == 0) {
+					if (gBuffer != null) {
+						gBuffer.storeMiss(pixels[path]);
+					}
+					results[path] = Color.BLACK;
+				} else {
+					finish(path, fallbacks[path]);
+				}
+				continue;
+			}
+
+			image.recordHit(shape, ray);
+			Vector normal = shape.getNormal(ray);
+			Point point = ray.getIntersectionPoint();
+			pointX[path] = point.getX();
+			pointY[path] = point.getY();
+			pointZ[path] = point.getZ();
+			normalX[path] = normal.getX();
+			normalY[path] = normal.getY();
+			normalZ[path] = normal.getZ();
+			materialIds[path] = shape.getMaterialId(ray);
+			if (depths[path] == 0 && gBuffer != null) {
+				gBuffer.store(pixels[path], shape, ray.getDistance(), normal, materialIds[path]);
+			}
+			hits[hitCount++] = path;
+		}
+	}
+
+	/**
+	 * Sorts the waiting paths so rays pointing into the same octant and starting in the same 
+	 * part of the scene are traced one after another. Octants come first, then the cells of a 
+	 * grid over the tree in Z-order.
+	 */
+	private void sortActive() {
+		Box volume = tree.getRoot().getVolume();
+		if (volume == null) {
+			return;
+		}
+		Point min = volume.getMin();
+		Point max = volume.getMax();
+		double scaleX = SORT_CELLS / Math.max(max.getX() - min.getX(), Double.MIN_NORMAL);
+		double scaleY = SORT_CELLS / Math.max(max.getY() - min.getY(), Double.MIN_NORMAL);
+		double scaleZ = SORT_CELLS / Math.max(max.getZ() - min.getZ(), Double.MIN_NORMAL);
+
+		for (int i = 0; i < activeCount; i++) {
+			int path = active[i];
+			int octant = (directionX[path] < 0 ? 1 : 0) | (directionY[path] < 0 ? 2 : 0) | (directionZ[path] < 0 ? 4 : 0);
+			int cell = Morton.encode(cell(originX[path], min.getX(), scaleX), cell(originY[path], min.getY(), scaleY), 
+					cell(originZ[path], min.getZ(), scaleZ));
+			long key = (octant << 27) | cell;
+			sortKeys[i] = (key << 32) | path;
+		}
+		Arrays.sort(sortKeys, 0, activeCount);
+		for (int i = 0; i < activeCount; i++) {
+			active[i] = (int) sortKeys[i];
+		}
+	}
+
+	/**
+	 * Finds the cell of the sorting grid a coordinate falls in, clamped to the grid.
+	 *
+	 * @param value - The coordinate
+	 * @param min - Lowest coordinate of the grid on the axis
+	 * @param scale - Cells per unit on the axis
+	 * @return the cell on the axis
+	 */
+	private static int cell(double value, double min, double scale) {
+		int cell = (int) ((value - min) * scale);
+		return Math.max(0, Math.min(SORT_CELLS - 1, cell));
+	}
+
+	/**
+	 * Works out the ambient light and the unshadowed light from each light for every hit,
+	 * queuing a shadow ray for each light that could reach the point.
+	 */
+	private void shade() {
+		shadowCount = 0;
+		TileRecord record = TileRecord.current();
+		Vector direction[] = new Vector[1];
+		double distance[] = new double[1];
+
+		for (int i = 0; i < hitCount; i++) {
+			int path = hits[i];
+			Material material = MaterialTable.get(materialIds[path]);
+			Vector shapeNormal = new Vector(normalX[path], normalY[path], normalZ[path]);
+			Point pointOfIntersection = new Point(pointX[path], pointY[path], pointZ[path]);
+
+			if (record != null) {
+				record.addPoint(pointOfIntersection);
+				if (material.getSpecular() > 0 && depths[path] + 1 < maxDepth) {
+					record.setReflective();
+				}
+			}
+
+			double ambientVisibility = image.calculateAmbientVisibility(pointOfIntersection, shapeNormal, 
+					new Vector(directionX[path], directionY[path], directionZ[path]), tree);
+			ambient[path] = image.calculateAmbient(material, ambientVisibility, scene);
+			lighting[path] = 0;
+
+			Point shadowOrigin = null;
+			int chosen = image.selectLights(scene, pointOfIntersection, shapeNormal, selection);
+			for (int l = 0; l < chosen; l++) {
+				direction[0] = null;
+				double contribution = image.calculateUnshadowedLight(selection.getLight(l), pointOfIntersection, shapeNormal,
+						material.getDiffuse(), material.getSpecular(), direction, distance) / selection.getDivisor(l);
+				if (direction[0] == null) {
+					continue;
+				}
+				if (!shadows) {
+					lighting[path] += contribution;
+					continue;
+				}
+
+				if (shadowOrigin == null) {
+					shadowOrigin = image.shadowOrigin(pointOfIntersection, shapeNormal);
+				}
+				if (image.usesShadowMaps()) {
+					// Lookups are cheap enough to do straight away instead of queuing
+					lighting[path] += contribution * image.lookUpShadowMap(selection.getLight(l), pointOfIntersection, shadowOrigin,
+							shapeNormal, direction[0], distance[0]);
+					continue;
+				}
+				queueShadowRay(path, selection.getLight(l), shadowOrigin, direction[0], distance[0], contribution);
+			}
+		}
+	}
+
+	/**
+	 * Fires every queued shadow ray, adding the light of those that reach their point.
+	 */
+	private void fireShadowRays() {
+		for (int i = 0; i < shadowCount; i++) {
+			Point shadowOrigin = new Point(shadowOriginX[i], shadowOriginY[i], shadowOriginZ[i]);
+			Vector direction = new Vector(shadowDirectionX[i], shadowDirectionY[i], shadowDirectionZ[i]);
+			Shape occluder = image.findShadowOccluder(shadowLights[i], shadowOrigin, direction, shadowDistances[i], tree);
+			if (occluder == null) {
+				lighting[shadowPaths[i]] += shadowContributions[i];
+			}
+		}
+	}
+
+	/**
+	 * Colours every shaded hit. Reflective hits queue their reflected ray for the next wave,
+	 * and every other path ends here.
+	 */
+	private void resolve() {
+		activeCount = 0;
+		for (int i = 0; i < hitCount; i++) {
+			int path = hits[i];
+			Material material = MaterialTable.get(materialIds[path]);
+			double specularReflection = material.getSpecular();
+			double phong = ambient[path] + lighting[path];
+			Color colour = image.performColourMap(material.getColour(), phong);
+
+			if (specularReflection > 0) {
+				phongs[path * maxDepth + phongCounts[path]++] = phong;
+				if (depths[path] + 1 < maxDepth) {
+					Ray ray = toRay(path);
+					Vector rayReflection = image.reflectionDirection(ray, new Vector(normalX[path], normalY[path], normalZ[path]));
+					Point point = new Point(pointX[path], pointY[path], pointZ[path]);
+					Ray reflectedRay = image.reflect(ray, point, rayReflection, specularReflection);
+					if (reflectedRay != null) {
+						originX[path] = pointX[path];
+						originY[path] = pointY[path];
+						originZ[path] = pointZ[path];
+						directionX[path] = rayReflection.getX();
+						directionY[path] = rayReflection.getY();
+						directionZ[path] = rayReflection.getZ();
+						throughputs[path] = reflectedRay.getThroughput();
+						depths[path]++;
+						// Kept in case the reflected ray hits nothing
+						fallbacks[path] = colour;
+						active[activeCount++] = path;
+						continue;
+					}
+				}
+			}
+			finish(path, colour);
+		}
+	}
+
+	/**
+	 * Ends a path, applying the Phong value of each reflective surface along it from the
+	 * last surface back to the first.
+	 *
+	 * @param path - The path that has ended
+	 * @param colour - Colour found by the last ray of the path
+	 */
+	private void finish(int path, Color colour) {
+		for (int i = phongCounts[path] - 1; i >= 0; i--) {
+			colour = image.performColourMap(colour, phongs[path * maxDepth + i]);
+		}
+		results[path] = colour;
+	}
+
+	/**
+	 * Creates the ray a path is waiting on, for the methods that take one.
+	 *
+	 * @param path - The path
+	 * @return a new ray with the origin, direction, throughput and budget of the path
+	 */
+	private Ray toRay(int path) {
+		Ray ray = new Ray(new Point(originX[path], originY[path], originZ[path]), 
+				new Vector(directionX[path], directionY[path], directionZ[path]));
+		ray.setThroughput(throughputs[path]);
+		ray.setBudget(budgets[path]);
+		return ray;
+	}
+
+	/**
+	 * Adds a shadow ray to the queue, growing it if it is full.
+	 *
+	 * @param path - The path the shadow ray belongs to
+	 * @param light - The light the shadow ray points at
+	 * @param shadowOrigin - Point just off the surface to start the shadow ray from
+	 * @param direction - Unit direction to the light
+	 * @param distance - Distance to the light
+	 * @param contribution - Light added to the path if the shadow ray reaches the light
+	 */
+	private void queueShadowRay(int path, Light light, Point shadowOrigin, Vector direction, double distance,
+			double contribution) {
+		if (shadowCount == shadowPaths.length) {
+			int size = Math.max(16, shadowPaths.length * 2);
+			shadowPaths = Arrays.copyOf(shadowPaths, size);
+			shadowLights = Arrays.copyOf(shadowLights, size);
+			shadowOriginX = Arrays.copyOf(shadowOriginX, size);
+			shadowOriginY = Arrays.copyOf(shadowOriginY, size);
+			shadowOriginZ = Arrays.copyOf(shadowOriginZ, size);
+			shadowDirectionX = Arrays.copyOf(shadowDirectionX, size);
+			shadowDirectionY = Arrays.copyOf(shadowDirectionY, size);
+			shadowDirectionZ = Arrays.copyOf(shadowDirectionZ, size);
+			shadowDistances = Arrays.copyOf(shadowDistances, size);
+			shadowContributions = Arrays.copyOf(shadowContributions, size);
+		}
+		shadowPaths[shadowCount] = path;
+		shadowLights[shadowCount] = light;
+		shadowOriginX[shadowCount] = shadowOrigin.getX();
+		shadowOriginY[shadowCount] = shadowOrigin.getY();
+		shadowOriginZ[shadowCount] = shadowOrigin.getZ();
+		shadowDirectionX[shadowCount] = direction.getX();
+		shadowDirectionY[shadowCount] = direction.getY();
+		shadowDirectionZ[shadowCount] = direction.getZ();
+		shadowDistances[shadowCount] = distance;
+		shadowContributions[shadowCount] = contribution;
+		shadowCount++;
+	}
+
+	/**
+	 * Grows the path arrays if they cannot hold a number of paths.
+	 *
+	 * @param count - Number of paths about to be traced
+	 */
+	private void prepare(int count) {
+		if (depths.length >= count) {
+			return;
+		}
+		originX = new double[count];
+		originY = new double[count];
+		originZ = new double[count];
+		directionX = new double[count];
+		directionY = new double[count];
+		directionZ = new double[count];
+		throughputs = new double[count];
+		budgets = new RayBudget[count];
+		depths = new int[count];
+		pixels = new int[count];
+		pointX = new double[count];
+		pointY = new double[count];
+		pointZ = new double[count];
+		normalX = new double[count];
+		normalY = new double[count];
+		normalZ = new double[count];
+		materialIds = new int[count];
+		ambient = new double[count];
+		lighting = new double[count];
+		fallbacks = new Color[count];
+		results = new Color[count];
+		phongs = new double[count * maxDepth];
+		phongCounts = new int[count];
+		active = new int[count];
+		hits = new int[count];
+		sortKeys = new long[count];
+	}
+}